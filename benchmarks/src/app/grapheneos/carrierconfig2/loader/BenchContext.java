@@ -0,0 +1,36 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Context stand-in. Packages are treated as installed system packages based on their name,
+// see SyntheticCSettingsDir
+class BenchContext extends Context {
+    // number of simulated PackageManager binder calls
+    final AtomicLong numPackageManagerCalls = new AtomicLong();
+
+    private final PackageManager packageManager = new PackageManager() {
+        @Override
+        public ApplicationInfo getApplicationInfo(String packageName, int flags)
+                throws NameNotFoundException {
+            numPackageManagerCalls.getAndIncrement();
+            if (packageName.startsWith(SyntheticCSettingsDir.NON_SYSTEM_PACKAGE_PREFIX)) {
+                throw new NameNotFoundException(packageName);
+            }
+            var ai = new ApplicationInfo();
+            ai.packageName = packageName;
+            if (packageName.startsWith(SyntheticCSettingsDir.SYSTEM_PACKAGE_PREFIX)) {
+                ai.flags |= ApplicationInfo.FLAG_SYSTEM;
+            }
+            return ai;
+        }
+    };
+
+    @Override
+    public PackageManager getPackageManager() {
+        return packageManager;
+    }
+}
@@ -0,0 +1,99 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import com.google.carrier.CarrierId;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Full CmpTest run against a local GcsConfigSource stand-in, which returns precomputed configs of our own
+// loader after a simulated binder round trip. Compares the per-CarrierId mode with the batched mode.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class CmpTestBenchmark {
+    @Param("500")
+    public int numCarrierMaps;
+
+    @Param({"1", "16"})
+    public int batchSize;
+
+    // simulated latency of the GCS binder call, including parceling
+    @Param("200")
+    public int gcsLatencyMicros;
+
+    private File dir;
+    private CSettingsDir csd;
+    private BenchContext ctx;
+    private GcsConfigSource gcsStandIn;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("carrierconfig2-bench").toFile();
+        SyntheticCSettingsDir.create(dir, numCarrierMaps, 42L);
+        csd = new CSettingsDir(dir, true);
+        ctx = new BenchContext();
+        gcsStandIn = createGcsStandIn();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticCSettingsDir.deleteRecursively(dir);
+    }
+
+    // Configs are computed once per proto CarrierId (during warmup) from a separate CSettingsDir,
+    // which keeps the stand-in cheap and its caches independent from the caches of the
+    // CSettingsDir under test
+    private GcsConfigSource createGcsStandIn() {
+        var gcsCsd = new CSettingsDir(dir, true);
+        var ccl = new CarrierConfigLoader(ctx, gcsCsd);
+        ccl.disableFiltering();
+        ccl.skipApnUpdate();
+
+        // APN MVNO fields depend on the matched proto CarrierId, not only on its canonical name
+        var configs = new ConcurrentHashMap<CarrierId, GcsConfigSource.Configs>();
+        long latencyNanos = TimeUnit.MICROSECONDS.toNanos(gcsLatencyMicros);
+        return carrierId -> {
+            LockSupport.parkNanos(latencyNanos);
+            CarrierId2 cid2 = CarrierId2.getInner(gcsCsd, carrierId);
+            return configs.computeIfAbsent(
+                    cid2 != null ? cid2.protoCarrierId : CarrierId.getDefaultInstance(), k ->
+                    new GcsConfigSource.Configs(ccl.load(carrierId),
+                            Apns.getApnContentValues(gcsCsd, carrierId)));
+        };
+    }
+
+    @Benchmark
+    public int run() throws ExecutionException, InterruptedException, IOException {
+        var cmpTest = new CmpTest(ctx, csd, gcsStandIn, (tag, msg) -> {},
+                CmpTest.DEFAULT_CONCURRENCY);
+        cmpTest.useBatches(batchSize);
+        cmpTest.run();
+        int differenceCount = cmpTest.differenceCount.get();
+        if (differenceCount != 0) {
+            throw new IllegalStateException("unexpected differences: " + differenceCount);
+        }
+        return cmpTest.numCarrierIds.get();
+    }
+}
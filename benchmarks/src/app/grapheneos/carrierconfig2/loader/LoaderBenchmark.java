@@ -0,0 +1,180 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.content.ContentValues;
+import android.os.PersistableBundle;
+import android.service.carrier.CarrierIdentifier;
+import android.telephony.CarrierConfigManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Benchmarks of loader hot paths against a synthetic CarrierSettings directory.
+//
+// "Cold" benchmarks use a new CSettingsDir for each operation, which includes reading and indexing
+// of carrier_list.pb / others.pb. "Warm" benchmarks reuse a CSettingsDir that has all of its lazily
+// built state already initialized.
+//
+// Run with "-prof gc" to get allocation rates.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LoaderBenchmark {
+    @Param("1500")
+    public int numCarrierMaps;
+
+    @Param("true")
+    public boolean mapFiles;
+
+    // warm benchmarks are served from CSettingsSnapshot when true
+    @Param("false")
+    public boolean useSnapshot;
+
+    private File dir;
+    private CSettingsDir csd;
+    private BenchContext ctx;
+    private CarrierConfigLoader filteringLoader;
+    private CarrierConfigLoader nonFilteringLoader;
+
+    private CarrierIdentifier[] carrierIds;
+    private CarrierId2[] carrierId2s;
+    private CSettings[] cSettings;
+    private String[] enableAppsValue;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("carrierconfig2-bench").toFile();
+        var synth = SyntheticCSettingsDir.create(dir, numCarrierMaps, 42L);
+        csd = new CSettingsDir(dir, mapFiles);
+        if (useSnapshot) {
+            csd.loadSnapshot(new File(dir, "snapshot"), "benchmark");
+        }
+        ctx = new BenchContext();
+
+        filteringLoader = new CarrierConfigLoader(ctx, csd);
+        filteringLoader.skipApnUpdate();
+        nonFilteringLoader = new CarrierConfigLoader(ctx, csd);
+        nonFilteringLoader.disableFiltering();
+        nonFilteringLoader.skipApnUpdate();
+
+        var ids = new ArrayList<CarrierIdentifier>();
+        var cid2s = new ArrayList<CarrierId2>();
+        var css = new ArrayList<CSettings>();
+        for (CarrierIdentifier carrierId : synth.carrierIds) {
+            CarrierId2 cid2 = CarrierId2.getInner(csd, carrierId);
+            if (cid2 == null) {
+                continue;
+            }
+            CSettings cs = CSettings.getInner(csd, cid2);
+            if (cs == null) {
+                continue;
+            }
+            ids.add(carrierId);
+            cid2s.add(cid2);
+            css.add(cs);
+        }
+        if (ids.isEmpty()) {
+            throw new IllegalStateException("no resolvable CarrierIds in " + dir);
+        }
+        carrierIds = ids.toArray(new CarrierIdentifier[0]);
+        carrierId2s = cid2s.toArray(new CarrierId2[0]);
+        cSettings = css.toArray(new CSettings[0]);
+
+        enableAppsValue = new String[] {
+                SyntheticCSettingsDir.SYSTEM_PACKAGE_PREFIX + "app1",
+                SyntheticCSettingsDir.NON_SYSTEM_PACKAGE_PREFIX + "app2",
+                SyntheticCSettingsDir.SYSTEM_PACKAGE_PREFIX + "app3",
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticCSettingsDir.deleteRecursively(dir);
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (i + 1 == carrierIds.length) ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public CarrierId2 carrierId2LookupWarm() {
+        return CarrierId2.getInner(csd, carrierIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public CarrierId2 carrierId2LookupCold() {
+        return CarrierId2.getInner(new CSettingsDir(dir, mapFiles), carrierIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public CSettings cSettingsLookupWarm() {
+        return CSettings.getInner(csd, carrierId2s[nextIndex()]);
+    }
+
+    @Benchmark
+    public CSettings cSettingsLookupCold() {
+        return CSettings.getInner(new CSettingsDir(dir, mapFiles), carrierId2s[nextIndex()]);
+    }
+
+    @Benchmark
+    public PersistableBundle carrierConfigToBundleFiltered() {
+        return filteringLoader.carrierConfigToBundle(cSettings[nextIndex()].protoCSettings.getConfigs());
+    }
+
+    @Benchmark
+    public PersistableBundle carrierConfigToBundleUnfiltered() {
+        return nonFilteringLoader.carrierConfigToBundle(cSettings[nextIndex()].protoCSettings.getConfigs());
+    }
+
+    @Benchmark
+    public PersistableBundle loadWarm() {
+        return filteringLoader.load(carrierIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public PersistableBundle loadCold() {
+        var ccl = new CarrierConfigLoader(ctx, new CSettingsDir(dir, mapFiles));
+        ccl.skipApnUpdate();
+        return ccl.load(carrierIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public List<ContentValues> apnContentValues() {
+        return Apns.getApnContentValues(cSettings[nextIndex()]);
+    }
+
+    @Benchmark
+    public void filters(Blackhole bh) {
+        bh.consume(Filters.filterBoolValue(ctx, CarrierConfigManager.KEY_APN_EXPAND_BOOL, true));
+        bh.consume(Filters.filterBoolValue(ctx, "synthetic_bool", true));
+        bh.consume(Filters.filterTextValue(ctx, CarrierConfigManager.KEY_CARRIER_SETUP_APP_STRING,
+                SyntheticCSettingsDir.SYSTEM_PACKAGE_PREFIX + "app1/.SetupActivity"));
+        bh.consume(Filters.filterTextValue(ctx, "synthetic_string", "value"));
+        bh.consume(Filters.filterTextArray(ctx, CarrierConfigManager.KEY_ENABLE_APPS_STRING_ARRAY,
+                enableAppsValue));
+    }
+}
@@ -0,0 +1,320 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.service.carrier.CarrierIdentifier;
+import android.telephony.CarrierConfigManager;
+
+import com.google.carrier.ApnItem;
+import com.google.carrier.CarrierApns;
+import com.google.carrier.CarrierConfig;
+import com.google.carrier.CarrierId;
+import com.google.carrier.CarrierList;
+import com.google.carrier.CarrierMap;
+import com.google.carrier.CarrierSettings;
+import com.google.carrier.IntArray;
+import com.google.carrier.MultiCarrierSettings;
+import com.google.carrier.TextArray;
+import com.google.carrier.Timestamp;
+import com.google.protobuf.MessageLite;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Generates a CarrierSettings directory (see CSettingsDir) with the shape and size of the real
+// database: thousands of CarrierIds, MVNO CarrierIds that share MCC+MNC with their host carrier,
+// a large default carrier config, and most CarrierSettings stored in others.pb.
+//
+// Output is fully determined by the seed.
+final class SyntheticCSettingsDir {
+    static final String DEFAULT_CANONICAL_NAME = "default";
+    static final long VERSION = 1_000_000L;
+
+    // packages with these prefixes are treated as system packages by BenchContext
+    static final String SYSTEM_PACKAGE_PREFIX = "com.android.";
+    static final String NON_SYSTEM_PACKAGE_PREFIX = "com.example.";
+
+    private static final String[] FILTERED_BOOL_KEYS = {
+            CarrierConfigManager.KEY_ALLOW_ADDING_APNS_BOOL,
+            CarrierConfigManager.KEY_APN_EXPAND_BOOL,
+            CarrierConfigManager.KEY_HIDE_IMS_APN_BOOL,
+            CarrierConfigManager.KEY_SHOW_APN_SETTING_CDMA_BOOL,
+    };
+
+    final File dir;
+    final List<CarrierId> protoCarrierIds = new ArrayList<>();
+    // each element matches the protoCarrierIds element with the same index
+    final List<CarrierIdentifier> carrierIds = new ArrayList<>();
+
+    private final Random rnd;
+
+    private SyntheticCSettingsDir(File dir, long seed) {
+        this.dir = dir;
+        this.rnd = new Random(seed);
+    }
+
+    // numCarrierMaps is the number of canonical names, each one has 1-3 CarrierIds
+    static SyntheticCSettingsDir create(File dir, int numCarrierMaps, long seed) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("unable to create " + dir);
+        }
+        var s = new SyntheticCSettingsDir(dir, seed);
+        s.generate(numCarrierMaps);
+        return s;
+    }
+
+    private void generate(int numCarrierMaps) throws IOException {
+        int numMnoMaps = Math.max(1, numCarrierMaps / 2);
+        int numMvnoMaps = Math.max(0, numCarrierMaps - numMnoMaps);
+        int numPlmns = numMnoMaps * 2;
+
+        var carrierList = CarrierList.newBuilder();
+        carrierList.setVersion(VERSION);
+
+        // For any given MCC+MNC, MVNO CarrierIds precede the MVNODATA_NOT_SET CarrierId in the real
+        // database, which is why MVNO CarrierMaps are added first
+        for (int i = 0; i < numMvnoMaps; ++i) {
+            var m = CarrierMap.newBuilder();
+            m.setCanonicalName("mvno_" + i);
+            int numIds = 1 + rnd.nextInt(3);
+            for (int j = 0; j < numIds; ++j) {
+                m.addCarrierId(mvnoCarrierId(plmn(rnd.nextInt(numPlmns)), i, j));
+            }
+            carrierList.addEntry(m);
+        }
+
+        carrierList.addEntry(CarrierMap.newBuilder()
+                .setCanonicalName(DEFAULT_CANONICAL_NAME)
+                .addCarrierId(CarrierId.newBuilder().setMccMnc("000000")));
+
+        for (int i = 0; i < numMnoMaps; ++i) {
+            var m = CarrierMap.newBuilder();
+            m.setCanonicalName("mno_" + i);
+            m.addCarrierId(CarrierId.newBuilder().setMccMnc(plmn(i * 2)));
+            if (rnd.nextBoolean()) {
+                m.addCarrierId(CarrierId.newBuilder().setMccMnc(plmn(i * 2 + 1)));
+            }
+            carrierList.addEntry(m);
+        }
+
+        CarrierList cl = carrierList.build();
+        write("carrier_list", cl);
+
+        var others = MultiCarrierSettings.newBuilder();
+        others.setVersion(VERSION);
+        others.setLastUpdated(Timestamp.newBuilder().setSeconds(1_700_000_000L));
+
+        int idx = 0;
+        for (CarrierMap m : cl.getEntryList()) {
+            String canonicalName = m.getCanonicalName();
+            for (CarrierId id : m.getCarrierIdList()) {
+                if (!DEFAULT_CANONICAL_NAME.equals(canonicalName)) {
+                    protoCarrierIds.add(id);
+                    carrierIds.add(matchingCarrierId(id));
+                }
+            }
+
+            if (DEFAULT_CANONICAL_NAME.equals(canonicalName)) {
+                write(canonicalName, carrierSettings(canonicalName, 800, 0, true));
+            } else if ((idx++ % 3) == 0) {
+                // roughly a third of carriers have a standalone file in the real database
+                write(canonicalName, carrierSettings(canonicalName, 40 + rnd.nextInt(120),
+                        1 + rnd.nextInt(6), true));
+            } else {
+                others.addSetting(carrierSettings(canonicalName, 20 + rnd.nextInt(60),
+                        1 + rnd.nextInt(4), false));
+            }
+        }
+        write("others", others.build());
+    }
+
+    private CarrierId.Builder mvnoCarrierId(String mccMnc, int mapIdx, int idIdx) {
+        var b = CarrierId.newBuilder().setMccMnc(mccMnc);
+        switch (rnd.nextInt(3)) {
+            case 0:
+                b.setSpn("Mvno " + mapIdx + "-" + idIdx);
+                break;
+            case 1:
+                b.setGid1(String.format("%02X%02X", mapIdx & 0xff, (mapIdx >> 8) & 0xff)
+                        + (idIdx == 0 ? "" : Integer.toHexString(idIdx)));
+                break;
+            default:
+                var sb = new StringBuilder(mccMnc);
+                sb.append(String.format("%04d", mapIdx % 10_000));
+                sb.append(idIdx);
+                // interior and trailing wildcards
+                sb.setCharAt(mccMnc.length() + 1, 'x');
+                sb.append("xx");
+                b.setImsi(sb.toString());
+                break;
+        }
+        return b;
+    }
+
+    private static String plmn(int n) {
+        int mcc = 200 + n / 100;
+        int mnc = n % 100;
+        return mcc + ((n & 1) == 0 ? String.format("%02d", mnc) : String.format("%03d", mnc));
+    }
+
+    CarrierIdentifier matchingCarrierId(CarrierId id) {
+        String mccMnc = id.getMccMnc();
+        String mcc = mccMnc.substring(0, 3);
+        String mnc = mccMnc.substring(3);
+        String spn = null;
+        String imsi = null;
+        String gid1 = null;
+        switch (id.getMvnoDataCase()) {
+            case SPN:
+                spn = id.getSpn().toLowerCase();
+                break;
+            case GID1:
+                gid1 = id.getGid1().toLowerCase() + "ff";
+                break;
+            case IMSI:
+                imsi = id.getImsi().replace('x', '7').replace('X', '7') + "12";
+                break;
+        }
+        return new CarrierIdentifier(mcc, mnc, spn, imsi, gid1, null);
+    }
+
+    private CarrierSettings carrierSettings(String canonicalName, int numConfigs, int numApns,
+                                            boolean isStandalone) {
+        var b = CarrierSettings.newBuilder();
+        b.setCanonicalName(canonicalName);
+        if (isStandalone) {
+            // CarrierSettings inside MultiCarrierSettings don't have their own version and timestamp
+            b.setVersion(VERSION + rnd.nextInt(1000));
+            b.setLastUpdated(Timestamp.newBuilder().setSeconds(1_700_000_000L + rnd.nextInt(1_000_000)));
+        }
+        b.setConfigs(carrierConfig(numConfigs, 0));
+
+        var apns = CarrierApns.newBuilder();
+        for (int i = 0; i < numApns; ++i) {
+            apns.addApn(apnItem(canonicalName, i));
+        }
+        b.setApns(apns);
+        return b.build();
+    }
+
+    private CarrierConfig carrierConfig(int numConfigs, int depth) {
+        var cc = CarrierConfig.newBuilder();
+
+        if (depth == 0) {
+            for (String k : FILTERED_BOOL_KEYS) {
+                if (rnd.nextInt(4) == 0) {
+                    cc.addConfig(CarrierConfig.Config.newBuilder().setKey(k).setBoolValue(true));
+                }
+            }
+            if (rnd.nextBoolean()) {
+                cc.addConfig(CarrierConfig.Config.newBuilder()
+                        .setKey(CarrierConfigManager.KEY_CARRIER_SETUP_APP_STRING)
+                        .setTextValue(packageName() + "/.SetupActivity"));
+            }
+            if (rnd.nextBoolean()) {
+                var arr = TextArray.newBuilder();
+                for (int i = 0, n = 1 + rnd.nextInt(4); i < n; ++i) {
+                    arr.addItem(packageName());
+                }
+                cc.addConfig(CarrierConfig.Config.newBuilder()
+                        .setKey(CarrierConfigManager.KEY_ENABLE_APPS_STRING_ARRAY)
+                        .setTextArray(arr));
+            }
+            if (rnd.nextBoolean()) {
+                var arr = TextArray.newBuilder();
+                for (int i = 0, n = 1 + rnd.nextInt(3); i < n; ++i) {
+                    arr.addItem(packageName() + "/.WakeSignalReceiver: 1, 3");
+                }
+                cc.addConfig(CarrierConfig.Config.newBuilder()
+                        .setKey(CarrierConfigManager.KEY_CARRIER_APP_WAKE_SIGNAL_CONFIG_STRING_ARRAY)
+                        .setTextArray(arr));
+            }
+        }
+
+        for (int i = 0; i < numConfigs; ++i) {
+            var c = CarrierConfig.Config.newBuilder();
+            int kind = rnd.nextInt(100);
+            if (kind < 35) {
+                c.setKey("synthetic_" + i + "_bool").setBoolValue(rnd.nextBoolean());
+            } else if (kind < 60) {
+                c.setKey("synthetic_" + i + "_int").setIntValue(rnd.nextInt(100_000));
+            } else if (kind < 75) {
+                c.setKey("synthetic_" + i + "_string").setTextValue("value_" + rnd.nextInt(1_000_000));
+            } else if (kind < 87) {
+                // signal thresholds, band lists, etc.
+                var arr = IntArray.newBuilder();
+                for (int j = 0, n = 4 + rnd.nextInt(60); j < n; ++j) {
+                    arr.addItem(rnd.nextInt(256) - 140);
+                }
+                c.setKey("synthetic_" + i + "_int_array").setIntArray(arr);
+            } else if (kind < 95) {
+                var arr = TextArray.newBuilder();
+                for (int j = 0, n = 1 + rnd.nextInt(12); j < n; ++j) {
+                    arr.addItem("item_" + rnd.nextInt(10_000));
+                }
+                c.setKey("synthetic_" + i + "_string_array").setTextArray(arr);
+            } else if (kind < 97) {
+                c.setKey("synthetic_" + i + "_long").setLongValue(rnd.nextLong());
+            } else if (kind < 98) {
+                c.setKey("synthetic_" + i + "_double").setDoubleValue(rnd.nextDouble());
+            } else if (depth == 0) {
+                c.setKey("synthetic_" + i + "_bundle").setBundle(carrierConfig(3 + rnd.nextInt(10), depth + 1));
+            } else {
+                c.setKey("synthetic_" + i + "_int").setIntValue(rnd.nextInt());
+            }
+            cc.addConfig(c);
+        }
+        return cc.build();
+    }
+
+    private String packageName() {
+        return (rnd.nextBoolean() ? SYSTEM_PACKAGE_PREFIX : NON_SYSTEM_PACKAGE_PREFIX)
+                + "app" + rnd.nextInt(50);
+    }
+
+    private ApnItem apnItem(String canonicalName, int idx) {
+        var b = ApnItem.newBuilder();
+        b.setName(canonicalName + " APN " + idx);
+        b.setValue(canonicalName.replace('_', '.') + ".apn" + idx);
+        var types = new ArrayList<>(List.of(ApnItem.ApnType.DEFAULT, ApnItem.ApnType.MMS,
+                ApnItem.ApnType.SUPL, ApnItem.ApnType.IA, ApnItem.ApnType.IMS,
+                ApnItem.ApnType.XCAP, ApnItem.ApnType.ALL));
+        Collections.shuffle(types, rnd);
+        b.addAllType(types.subList(0, 1 + rnd.nextInt(4)));
+        b.setBearerBitmask(rnd.nextBoolean() ? "0" : "1|2|3|13|14|18|19|20");
+        b.setProtocol(ApnItem.Protocol.IPV4V6);
+        b.setRoamingProtocol(ApnItem.Protocol.IP);
+        b.setMmsc("http://mms." + canonicalName + ".example/mms");
+        b.setMmscProxy("10.0.0." + rnd.nextInt(256));
+        b.setMmscProxyPort("8080");
+        b.setAuthtype(rnd.nextInt(4) - 1);
+        b.setMtu(rnd.nextBoolean() ? 0 : 1400);
+        if (rnd.nextBoolean()) {
+            b.setProfileId(rnd.nextInt(5));
+        }
+        b.setSkip464Xlat(ApnItem.Xlat.forNumber(rnd.nextInt(3)));
+        b.setLingeringNetworkTypeBitmask(rnd.nextBoolean() ? "0" : "13|18|20");
+        b.setUserVisible(rnd.nextInt(8) != 0);
+        return b.build();
+    }
+
+    private void write(String name, MessageLite msg) throws IOException {
+        try (OutputStream os = new FileOutputStream(new File(dir, name + ".pb"))) {
+            msg.writeTo(os);
+        }
+    }
+
+    static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteRecursively(c);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,237 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.Telephony;
+import android.service.carrier.CarrierIdentifier;
+
+import com.google.carrier.ApnItem;
+import com.google.carrier.CarrierApns;
+import com.google.carrier.CarrierId;
+import com.google.carrier.CarrierSettings;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ApnsTest {
+
+    @Test
+    public void incrementalUpdateOfUnchangedRowsIsNoOp() {
+        var provider = new FakeApnProvider();
+        CSettings cs = cSettings(apn("internet", "1|2|3", 1400), apn("ims", "13", 0));
+
+        Apns.update(provider.context(), cs);
+        assertNotEquals(0L, provider.rows.firstEntry().getValue()
+                .get(Telephony.Carriers.NETWORK_TYPE_BITMASK));
+        provider.numOps = 0;
+
+        Apns.updateIncrementally(provider.context(), cs);
+        assertEquals(0, provider.numOps);
+    }
+
+    @Test
+    public void incrementalUpdateReplacesOnlyChangedRows() {
+        var provider = new FakeApnProvider();
+        Apns.update(provider.context(), cSettings(apn("internet", "1|2|3", 1400), apn("ims", "13", 0)));
+        provider.numOps = 0;
+
+        CSettings updated = cSettings(apn("internet", "1|2|3", 1400), apn("ims", "13|14", 0));
+        Apns.updateIncrementally(provider.context(), updated);
+        // delete and insert of the "ims" row
+        assertEquals(2, provider.numOps);
+
+        var expected = new FakeApnProvider();
+        Apns.update(expected.context(), updated);
+        assertEquals(expected.rowSet(), provider.rowSet());
+    }
+
+    private static CSettings cSettings(ApnItem... apns) {
+        CarrierId protoCarrierId = CarrierId.newBuilder().setMccMnc("310260").build();
+        var carrierId = new CarrierIdentifier("310", "260", null, null, null, null);
+        CarrierSettings cs = CarrierSettings.newBuilder()
+                .setCanonicalName("carrier")
+                .setApns(CarrierApns.newBuilder().addAllApn(Arrays.asList(apns)))
+                .build();
+        return new CSettings(new CarrierId2("carrier", carrierId, protoCarrierId), cs);
+    }
+
+    private static ApnItem apn(String name, String bearerBitmask, int mtu) {
+        return ApnItem.newBuilder()
+                .setName(name)
+                .setValue(name)
+                .addType(ApnItem.ApnType.DEFAULT)
+                .setBearerBitmask(bearerBitmask)
+                .setMtu(mtu)
+                .build();
+    }
+
+    // Unedited APNs of a single carrier in TelephonyProvider. Like the real provider, fills in
+    // defaults of unset columns and derives NETWORK_TYPE_BITMASK and MTU_V4 on insert
+    static final class FakeApnProvider extends ContentResolver {
+        final TreeMap<Long, ContentValues> rows = new TreeMap<>();
+        long nextId = 1;
+        int numOps;
+
+        Context context() {
+            return new Context() {
+                @Override
+                public ContentResolver getContentResolver() {
+                    return FakeApnProvider.this;
+                }
+            };
+        }
+
+        void insert(ContentValues cv) {
+            var row = new ContentValues(cv);
+            putDefault(row, Telephony.Carriers.PROFILE_ID, 0);
+            putDefault(row, Telephony.Carriers.CARRIER_ENABLED, 1);
+            Object bearer = row.get(Telephony.Carriers.BEARER_BITMASK);
+            // stand-in for ServiceState.convertBearerBitmaskToNetworkTypeBitmask()
+            putDefault(row, Telephony.Carriers.NETWORK_TYPE_BITMASK,
+                    bearer != null ? Integer.rotateLeft((Integer) bearer, 1) : 0);
+            Object mtu = row.get(Telephony.Carriers.MTU);
+            putDefault(row, Telephony.Carriers.MTU_V4, mtu != null ? (Integer) mtu : 0);
+            rows.put(nextId++, row);
+        }
+
+        private static void putDefault(ContentValues row, String column, int value) {
+            if (!row.containsKey(column)) {
+                row.put(column, value);
+            }
+        }
+
+        List<String> rowSet() {
+            var res = new ArrayList<String>();
+            for (ContentValues cv : rows.values()) {
+                var m = new TreeMap<String, Object>();
+                for (String k : cv.keySet()) {
+                    m.put(k, normalize(cv.get(k)));
+                }
+                res.add(m.toString());
+            }
+            res.sort(null);
+            return res;
+        }
+
+        // values are stored as SQLite integers
+        static Object normalize(Object o) {
+            if (o instanceof Boolean) {
+                return ((Boolean) o) ? 1L : 0L;
+            }
+            if (o instanceof Integer) {
+                return (long) (Integer) o;
+            }
+            return o;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
+            var list = new ArrayList<Map.Entry<Long, ContentValues>>(rows.entrySet());
+            return new Cursor() {
+                int pos = -1;
+
+                Object value(int i) {
+                    Map.Entry<Long, ContentValues> e = list.get(pos);
+                    return Telephony.Carriers._ID.equals(projection[i]) ? e.getKey()
+                            : normalize(e.getValue().get(projection[i]));
+                }
+
+                @Override
+                public int getCount() {
+                    return list.size();
+                }
+
+                @Override
+                public boolean moveToNext() {
+                    return ++pos < list.size();
+                }
+
+                @Override
+                public int getColumnIndex(String columnName) {
+                    return Arrays.asList(projection).indexOf(columnName);
+                }
+
+                @Override
+                public int getType(int i) {
+                    Object o = value(i);
+                    return o == null ? FIELD_TYPE_NULL : o instanceof Long ? FIELD_TYPE_INTEGER
+                            : FIELD_TYPE_STRING;
+                }
+
+                @Override
+                public boolean isNull(int i) {
+                    return value(i) == null;
+                }
+
+                @Override
+                public int getInt(int i) {
+                    return (int) getLong(i);
+                }
+
+                @Override
+                public long getLong(int i) {
+                    return (Long) value(i);
+                }
+
+                @Override
+                public String getString(int i) {
+                    Object o = value(i);
+                    return o != null ? o.toString() : null;
+                }
+
+                @Override
+                public void close() {}
+            };
+        }
+
+        @Override
+        public int delete(Uri url, String where, String[] selectionArgs) {
+            ++numOps;
+            int n = rows.size();
+            rows.clear();
+            return n;
+        }
+
+        @Override
+        public int bulkInsert(Uri url, ContentValues[] values) {
+            for (ContentValues cv : values) {
+                ++numOps;
+                insert(cv);
+            }
+            return values.length;
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatch(String authority,
+                ArrayList<ContentProviderOperation> operations) {
+            for (ContentProviderOperation op : operations) {
+                ++numOps;
+                switch (op.getType()) {
+                    case ContentProviderOperation.TYPE_INSERT:
+                        insert(op.getValues());
+                        break;
+                    case ContentProviderOperation.TYPE_DELETE:
+                        rows.remove(Long.parseLong(op.getSelectionArgs()[0]));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unexpected operation " + op.getType());
+                }
+            }
+            return new ContentProviderResult[0];
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.content.Context;
+
+import com.google.carrier.CarrierId;
+import com.google.carrier.CarrierList;
+import com.google.carrier.CarrierMap;
+import com.google.carrier.CarrierSettings;
+import com.google.protobuf.MessageLite;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CSettingsDirDiffTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File oldDir;
+    private File newDir;
+    private CarrierList carrierList;
+
+    @Before
+    public void setUp() throws IOException {
+        oldDir = SyntheticCSettingsDir.create(tmp.newFolder("old"), 40, 1L).dir;
+        newDir = tmp.newFolder("new");
+        for (File f : oldDir.listFiles()) {
+            Files.copy(f.toPath(), new File(newDir, f.getName()).toPath());
+        }
+        carrierList = CarrierList.parseFrom(Files.readAllBytes(
+                new File(oldDir, "carrier_list.pb").toPath()));
+    }
+
+    @Test
+    public void sameDirsHaveNoChanges() throws Exception {
+        var results = new ArrayList<CSettingsDirDiff.Result>();
+        CSettingsDirDiff.Summary summary = run(results);
+
+        // results follow CarrierList order
+        assertEquals(new ArrayList<>(protoCarrierIds(carrierList)), protoCarrierIdsOf(results));
+        assertEquals(results.size(), summary.numCarrierIds);
+        assertEquals(0, summary.numChanged);
+        assertEquals(0, summary.numApnRewrites);
+        for (CSettingsDirDiff.Result r : results) {
+            assertNotNull(r.protoCarrierId.toString(), r.newCanonicalName);
+            assertEquals(r.oldCanonicalName, r.newCanonicalName);
+        }
+    }
+
+    @Test
+    public void versionChangeRewritesApnsWithoutContentChanges() throws Exception {
+        String name = firstStandaloneMno();
+        File f = new File(newDir, name + ".pb");
+        CarrierSettings cs = CarrierSettings.parseFrom(Files.readAllBytes(f.toPath()));
+        write(f, cs.toBuilder().setVersion(cs.getVersion() + 1).build());
+
+        var results = new ArrayList<CSettingsDirDiff.Result>();
+        CSettingsDirDiff.Summary summary = run(results);
+
+        int numChanged = 0;
+        for (CSettingsDirDiff.Result r : results) {
+            boolean isAffected = name.equals(r.newCanonicalName);
+            assertEquals(isAffected, r.isChanged());
+            assertEquals(isAffected, r.isApnRewriteNeeded());
+            assertFalse(r.isApnsChanged());
+            // version string is reported by oldVersion and newVersion instead
+            assertEquals(List.of(), r.configDiffs);
+            if (isAffected) {
+                assertEquals(r.oldVersion + 1, r.newVersion);
+                ++numChanged;
+            }
+        }
+        assertTrue(numChanged > 0);
+        assertEquals(numChanged, summary.numChanged);
+        assertEquals(numChanged, summary.numApnRewrites);
+    }
+
+    @Test
+    public void carrierIdsPresentOnlyInOldDirAreResolvedInNewDir() throws Exception {
+        CarrierMap removed = carrierList.getEntry(0);
+        assertTrue(removed.getCanonicalName().startsWith("mvno_"));
+        CarrierList newCarrierList = carrierList.toBuilder().removeEntry(0).build();
+        write(new File(newDir, "carrier_list.pb"), newCarrierList);
+
+        var results = new ArrayList<CSettingsDirDiff.Result>();
+        run(results);
+
+        // CarrierIds of the new dir come first
+        var expectedOrder = new ArrayList<>(protoCarrierIds(newCarrierList));
+        expectedOrder.addAll(removed.getCarrierIdList());
+        assertEquals(expectedOrder, protoCarrierIdsOf(results));
+
+        List<CSettingsDirDiff.Result> oldOnly = results.subList(
+                results.size() - removed.getCarrierIdCount(), results.size());
+        for (CSettingsDirDiff.Result r : oldOnly) {
+            assertEquals(removed.getCanonicalName(), r.oldCanonicalName);
+            // falls back to the MNO of the same MCC+MNC, if there's one
+            assertFalse(removed.getCanonicalName().equals(r.newCanonicalName));
+            assertTrue(r.isChanged());
+            assertEquals(r.newCanonicalName != null, r.isApnRewriteNeeded());
+        }
+    }
+
+    @Test
+    public void dirWithoutDefaultSettings() throws Exception {
+        String name = firstStandaloneMno();
+        assertTrue(new File(oldDir, "default.pb").delete());
+        assertTrue(new File(oldDir, name + ".pb").delete());
+
+        var results = new ArrayList<CSettingsDirDiff.Result>();
+        CSettingsDirDiff.Summary summary = run(results);
+        assertEquals(results.size(), summary.numCarrierIds);
+
+        for (CSettingsDirDiff.Result r : results) {
+            if (name.equals(r.newCanonicalName)) {
+                assertNull(r.oldCanonicalName);
+                assertEquals(-1L, r.oldVersion);
+                assertTrue(r.isApnRewriteNeeded());
+                assertFalse(r.configDiffs.isEmpty());
+            }
+            // default config keys are missing from all old configs
+            assertTrue(r.isChanged());
+        }
+    }
+
+    private CSettingsDirDiff.Summary run(List<CSettingsDirDiff.Result> results) throws Exception {
+        var diff = new CSettingsDirDiff(new Context() {}, new CSettingsDir(oldDir, false),
+                new CSettingsDir(newDir, false), 4);
+        return diff.run(results::add);
+    }
+
+    // canonical name of a carrier that has its own CarrierSettings file
+    private String firstStandaloneMno() {
+        String[] names = oldDir.list((d, n) -> n.startsWith("mno_") && n.endsWith(".pb"));
+        Arrays.sort(names);
+        return names[0].substring(0, names[0].length() - ".pb".length());
+    }
+
+    private static LinkedHashSet<CarrierId> protoCarrierIds(CarrierList cl) {
+        var res = new LinkedHashSet<CarrierId>();
+        for (CarrierMap m : cl.getEntryList()) {
+            res.addAll(m.getCarrierIdList());
+        }
+        return res;
+    }
+
+    private static List<CarrierId> protoCarrierIdsOf(List<CSettingsDirDiff.Result> results) {
+        var res = new ArrayList<CarrierId>(results.size());
+        for (CSettingsDirDiff.Result r : results) {
+            res.add(r.protoCarrierId);
+        }
+        return res;
+    }
+
+    private static void write(File f, MessageLite msg) throws IOException {
+        try (OutputStream os = new FileOutputStream(f)) {
+            msg.writeTo(os);
+        }
+    }
+}
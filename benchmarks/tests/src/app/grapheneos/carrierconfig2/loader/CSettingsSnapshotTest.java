@@ -0,0 +1,138 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.service.carrier.CarrierIdentifier;
+
+import com.google.carrier.CarrierMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CSettingsSnapshotTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private SyntheticCSettingsDir synthetic;
+    private CSettingsDir csd;
+    private File snapshotFile;
+
+    @Before
+    public void setUp() throws IOException {
+        synthetic = SyntheticCSettingsDir.create(tmp.newFolder("db"), 60, 1L);
+        csd = new CSettingsDir(synthetic.dir, false);
+        snapshotFile = new File(tmp.getRoot(), "snapshot");
+    }
+
+    @Test
+    public void lookupsMatchProtobufFiles() throws IOException {
+        byte[] key = csd.computeContentKey("fingerprint");
+        CSettingsSnapshot.compile(csd, key, snapshotFile);
+        CSettingsSnapshot s = CSettingsSnapshot.open(snapshotFile, key);
+        assertNotNull(s);
+
+        var mccMncs = new HashSet<String>();
+        for (CarrierIdentifier id : synthetic.carrierIds) {
+            mccMncs.add(id.getMcc() + id.getMnc());
+        }
+        // MCC+MNC that isn't present in the database
+        mccMncs.add("00101");
+        for (String mccMnc : mccMncs) {
+            assertCandidatesEqual(mccMnc, csd.getMccMncIndex().get(mccMnc), s.getCandidates(mccMnc));
+            // decoded candidates are cached
+            assertSame(s.getCandidates(mccMnc), s.getCandidates(mccMnc));
+        }
+
+        for (CarrierMap m : csd.getCarrierList().getEntryList()) {
+            String name = m.getCanonicalName();
+            assertEquals(name, csd.getProtobufCarrierSettings(name), s.getCarrierSettings(name));
+        }
+        assertNull(s.getCarrierSettings("missing"));
+    }
+
+    @Test
+    public void loadedSnapshotResolvesCarrierIdsLikeProtobufFiles() {
+        var snapshotDir = new CSettingsDir(synthetic.dir, false);
+        snapshotDir.loadSnapshot(snapshotFile, "fingerprint");
+        assertTrue(snapshotFile.isFile());
+
+        for (CarrierIdentifier id : synthetic.carrierIds) {
+            CarrierId2 expected = CarrierId2.getInner(csd, id);
+            CarrierId2 actual = CarrierId2.getInner(snapshotDir, id);
+            assertNotNull(id.toString(), actual);
+            assertEquals(expected.canonicalName, actual.canonicalName);
+            assertEquals(expected.protoCarrierId, actual.protoCarrierId);
+            assertEquals(CSettings.getInner(csd, expected).protoCSettings,
+                    CSettings.getInner(snapshotDir, actual).protoCSettings);
+        }
+    }
+
+    @Test
+    public void contentKeyDependsOnBuildFingerprintAndFiles() throws IOException {
+        byte[] key = csd.computeContentKey("a");
+        assertArrayEquals(key, csd.computeContentKey("a"));
+        assertFalse(Arrays.equals(key, csd.computeContentKey("b")));
+
+        CSettingsSnapshot.compile(csd, key, snapshotFile);
+        assertNull(CSettingsSnapshot.open(snapshotFile, csd.computeContentKey("b")));
+
+        File carrierList = new File(synthetic.dir, "carrier_list.pb");
+        assertTrue(carrierList.setLastModified(carrierList.lastModified() - 10_000L));
+        assertNull(CSettingsSnapshot.open(snapshotFile, csd.computeContentKey("a")));
+    }
+
+    @Test
+    public void truncatedSnapshotIsRejected() throws IOException {
+        byte[] key = csd.computeContentKey("fingerprint");
+        CSettingsSnapshot.compile(csd, key, snapshotFile);
+        try (var f = new RandomAccessFile(snapshotFile, "rw")) {
+            f.setLength(f.length() - 1);
+        }
+        try {
+            CSettingsSnapshot.open(snapshotFile, key);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void corruptedTableIsRejected() throws IOException {
+        byte[] key = csd.computeContentKey("fingerprint");
+        CSettingsSnapshot.compile(csd, key, snapshotFile);
+        try (var f = new RandomAccessFile(snapshotFile, "rw")) {
+            // offset of the last candidate entry
+            f.seek(f.length() - 8);
+            f.writeInt(Integer.MAX_VALUE);
+        }
+        try {
+            CSettingsSnapshot.open(snapshotFile, key);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void assertCandidatesEqual(String mccMnc, MccMncIndex.Candidate[] expected,
+                                              MccMncIndex.Candidate[] actual) {
+        assertEquals(mccMnc, expected.length, actual.length);
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(mccMnc, expected[i].canonicalName, actual[i].canonicalName);
+            assertEquals(mccMnc, expected[i].protoCarrierId, actual[i].protoCarrierId);
+            assertEquals(mccMnc, expected[i].imsiPattern != null, actual[i].imsiPattern != null);
+        }
+    }
+}
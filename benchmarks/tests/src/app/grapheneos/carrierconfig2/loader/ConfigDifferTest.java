@@ -0,0 +1,130 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.content.ContentValues;
+import android.os.PersistableBundle;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ConfigDifferTest {
+    private final ConfigDiffer differ = new ConfigDiffer("ignored");
+
+    @Test
+    public void equalBundles() {
+        assertEquals(List.of(), diff(bundle(), bundle()));
+    }
+
+    @Test
+    public void missingAndChangedKeysAreReportedInPathOrder() {
+        PersistableBundle expected = bundle();
+        expected.putString("only_expected", "a");
+        PersistableBundle actual = bundle();
+        actual.putString("only_actual", "b");
+        actual.putIntArray("int_array", new int[] { 1, 2, 4 });
+        actual.putLong("int", 1L);
+
+        List<ConfigDiffer.Diff> diffs = diff(expected, actual);
+        assertEquals(4, diffs.size());
+        assertDiff(diffs.get(0), "config/int", ConfigDiffer.Kind.TYPE_MISMATCH);
+        assertDiff(diffs.get(1), "config/int_array", ConfigDiffer.Kind.VALUE_MISMATCH);
+        assertDiff(diffs.get(2), "config/only_actual", ConfigDiffer.Kind.MISSING_IN_EXPECTED);
+        assertDiff(diffs.get(3), "config/only_expected", ConfigDiffer.Kind.MISSING_IN_ACTUAL);
+        assertNull(diffs.get(2).expected);
+        assertEquals("b", diffs.get(2).actual);
+    }
+
+    @Test
+    public void nestedBundlesAreComparedByKey() {
+        PersistableBundle actual = bundle();
+        actual.getPersistableBundle("bundle").putBoolean("nested_bool", false);
+        actual.getPersistableBundle("bundle").putString("ignored", "changed");
+
+        List<ConfigDiffer.Diff> diffs = diff(bundle(), actual);
+        assertEquals(1, diffs.size());
+        assertDiff(diffs.get(0), "config/bundle/nested_bool", ConfigDiffer.Kind.VALUE_MISMATCH);
+    }
+
+    @Test
+    public void ignoredKeysAreSkippedAtAllLevels() {
+        PersistableBundle actual = bundle();
+        actual.putString("ignored", "changed");
+        actual.getPersistableBundle("bundle").remove("ignored");
+
+        assertEquals(List.of(), diff(bundle(), actual));
+    }
+
+    @Test
+    public void missingActualBundle() {
+        var diffs = new ArrayList<ConfigDiffer.Diff>();
+        assertEquals(1, differ.diff("config", bundle(), null, diffs::add));
+        assertDiff(diffs.get(0), "config", ConfigDiffer.Kind.MISSING_IN_ACTUAL);
+    }
+
+    @Test
+    public void apnRowsAreComparedByPosition() {
+        var expected = new ArrayList<ContentValues>();
+        var actual = new ArrayList<ContentValues>();
+        for (int i = 0; i < 12; ++i) {
+            expected.add(apn("apn" + i, i));
+            actual.add(apn("apn" + i, (i == 2 || i == 10) ? -1 : i));
+        }
+        actual.add(apn("extra", 0));
+
+        var diffs = new ArrayList<ConfigDiffer.Diff>();
+        assertEquals(3, differ.diff("apns", expected, actual, diffs::add));
+        // row order, not lexicographic path order
+        assertDiff(diffs.get(0), "apns[2]/mtu_v4", ConfigDiffer.Kind.VALUE_MISMATCH);
+        assertDiff(diffs.get(1), "apns[10]/mtu_v4", ConfigDiffer.Kind.VALUE_MISMATCH);
+        assertDiff(diffs.get(2), "apns[12]", ConfigDiffer.Kind.MISSING_IN_EXPECTED);
+    }
+
+    @Test
+    public void valueToStringIsDeterministic() {
+        var b = new PersistableBundle();
+        b.putIntArray("z", new int[] { 1, 2 });
+        b.putString("a", "x");
+        var nested = new PersistableBundle();
+        nested.putStringArray("k", new String[] { "v", null });
+        b.putPersistableBundle("m", nested);
+
+        assertEquals("{a=x, m={k=[v, null]}, z=[1, 2]}", ConfigDiffer.valueToString(b));
+        assertEquals("{a=x, m={k=[v, null]}, z=[1, 2]}", ConfigDiffer.valueToString(b.deepCopy()));
+    }
+
+    private List<ConfigDiffer.Diff> diff(PersistableBundle expected, PersistableBundle actual) {
+        var diffs = new ArrayList<ConfigDiffer.Diff>();
+        assertEquals(differ.diff("config", expected, actual, diffs::add), diffs.size());
+        return diffs;
+    }
+
+    private static void assertDiff(ConfigDiffer.Diff d, String path, ConfigDiffer.Kind kind) {
+        assertEquals(d.toString(), path, d.path);
+        assertEquals(d.toString(), kind, d.kind);
+    }
+
+    private static PersistableBundle bundle() {
+        var nested = new PersistableBundle();
+        nested.putBoolean("nested_bool", true);
+        nested.putString("ignored", "value");
+
+        var b = new PersistableBundle();
+        b.putInt("int", 1);
+        b.putIntArray("int_array", new int[] { 1, 2, 3 });
+        b.putStringArray("string_array", new String[] { "a", null });
+        b.putPersistableBundle("bundle", nested);
+        b.putString("ignored", "value");
+        return b;
+    }
+
+    private static ContentValues apn(String name, int mtu) {
+        var cv = new ContentValues();
+        cv.put("apn", name);
+        cv.put("mtu_v4", mtu);
+        return cv;
+    }
+}
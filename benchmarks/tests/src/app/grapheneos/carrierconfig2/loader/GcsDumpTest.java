@@ -0,0 +1,97 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.content.ContentValues;
+import android.os.PersistableBundle;
+import android.service.carrier.CarrierIdentifier;
+
+import com.google.carrier.CarrierId;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class GcsDumpTest {
+    // doesn't ignore any keys, round trip should be lossless
+    private static final ConfigDiffer DIFFER = new ConfigDiffer();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        var items = List.of(
+                item("carrier_a", CarrierId.newBuilder().setMccMnc("310260").build(),
+                        new CarrierIdentifier("310", "260", null, null, null, null)),
+                item("carrier_b", CarrierId.newBuilder().setMccMnc("23410").setGid1("ab").build(),
+                        new CarrierIdentifier("234", "10", "spn", "234100000000001", "abff", "01")));
+
+        File file = tmp.newFile("gcs_dump.pb");
+        try (var writer = new GcsDump.Writer(file)) {
+            for (GcsDump.Item item : items) {
+                writer.write(item);
+            }
+        }
+
+        try (var reader = new GcsDump.Reader(file)) {
+            for (GcsDump.Item expected : items) {
+                GcsDump.Item actual = reader.next();
+                assertNotNull(actual);
+                assertEquals(expected.canonicalName, actual.canonicalName);
+                assertEquals(expected.protoCarrierId, actual.protoCarrierId);
+                assertEquals(expected.seed, actual.seed);
+                assertEquals(expected.carrierId, actual.carrierId);
+                assertEquals(0, DIFFER.diff("config", expected.configs.carrierConfigs,
+                        actual.configs.carrierConfigs, d -> {
+                            throw new AssertionError(d.toString());
+                        }));
+                assertEquals(0, DIFFER.diff("apns", expected.configs.apns, actual.configs.apns,
+                        d -> {
+                            throw new AssertionError(d.toString());
+                        }));
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    private static GcsDump.Item item(String canonicalName, CarrierId protoCarrierId,
+                                     CarrierIdentifier carrierId) {
+        var nested = new PersistableBundle();
+        nested.putInt("nested_int", 1);
+        nested.putStringArray("nested_string_array", new String[] { "a", null, "" });
+
+        var configs = new PersistableBundle();
+        configs.putBoolean("bool", true);
+        configs.putInt("int", -1);
+        configs.putLong("long", 1L << 40);
+        configs.putDouble("double", 0.5);
+        configs.putString("string", canonicalName);
+        configs.putString("null_string", null);
+        configs.putBooleanArray("bool_array", new boolean[] { true, false });
+        configs.putIntArray("int_array", new int[] { 1, 2, 3 });
+        configs.putLongArray("long_array", new long[0]);
+        configs.putDoubleArray("double_array", new double[] { -0.0, Double.NaN });
+        configs.putStringArray("string_array", new String[] { "x", "y" });
+        configs.putPersistableBundle("bundle", nested);
+
+        var apn = new ContentValues();
+        apn.put("apn", "internet");
+        apn.put("mtu_v4", 1500);
+        apn.put("network_type_bitmask", 0L);
+        apn.put("carrier_enabled", true);
+        apn.putNull("proxy");
+        var apns = new ArrayList<ContentValues>();
+        apns.add(apn);
+        apns.add(new ContentValues());
+
+        return new GcsDump.Item(canonicalName, protoCarrierId, canonicalName.hashCode(), carrierId,
+                new GcsConfigSource.Configs(configs, apns));
+    }
+}
@@ -0,0 +1,85 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImsiPatternTest {
+
+    @Test
+    public void wildcardsInsidePatternMatchSingleDigits() {
+        ImsiPattern p = ImsiPattern.compile("310260xx1");
+        assertTrue(p.matches("310260551"));
+        assertTrue(p.matches("310260001123456"));
+        assertFalse(p.matches("310260552"));
+        assertFalse(p.matches("3102605a1"));
+        // shorter than the pattern
+        assertFalse(p.matches("31026055"));
+        // rest of the IMSI should consist of digits
+        assertFalse(p.matches("310260551a"));
+    }
+
+    @Test
+    public void trailingWildcardsMatchAnyNumberOfDigits() {
+        ImsiPattern p = ImsiPattern.compile("310260xXx");
+        assertTrue(p.matches("310260"));
+        assertTrue(p.matches("3102601"));
+        assertTrue(p.matches("310260123456789"));
+        assertFalse(p.matches("31026"));
+        assertFalse(p.matches("310260x"));
+    }
+
+    @Test
+    public void emptyPatternMatchesOnlyDigits() {
+        ImsiPattern p = ImsiPattern.compile("");
+        assertTrue(p.matches(""));
+        assertTrue(p.matches("123"));
+        assertFalse(p.matches("12a"));
+    }
+
+    // GCS turns the pattern into a regex, see ImsiPattern
+    @Test
+    public void matchesRegexOfGcs() {
+        var rnd = new Random(1);
+        String patternChars = "0123xX";
+        String imsiChars = "0123a";
+        for (int i = 0; i < 20_000; ++i) {
+            String pattern = randomString(rnd, patternChars, 6);
+            String imsi = randomString(rnd, imsiChars, 8);
+            assertEquals(pattern + " " + imsi, toGcsRegex(pattern).matcher(imsi).matches(),
+                    ImsiPattern.compile(pattern).matches(imsi));
+        }
+    }
+
+    private static Pattern toGcsRegex(String pattern) {
+        int len = pattern.length();
+        while (len > 0 && Character.toLowerCase(pattern.charAt(len - 1)) == 'x') {
+            --len;
+        }
+        var b = new StringBuilder();
+        for (int i = 0; i < len; ++i) {
+            char c = pattern.charAt(i);
+            if (Character.toLowerCase(c) == 'x') {
+                b.append("[0-9]");
+            } else {
+                b.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        b.append("[0-9]*");
+        return Pattern.compile(b.toString());
+    }
+
+    private static String randomString(Random rnd, String chars, int maxLen) {
+        int len = rnd.nextInt(maxLen + 1);
+        var b = new StringBuilder(len);
+        for (int i = 0; i < len; ++i) {
+            b.append(chars.charAt(rnd.nextInt(chars.length())));
+        }
+        return b.toString();
+    }
+}
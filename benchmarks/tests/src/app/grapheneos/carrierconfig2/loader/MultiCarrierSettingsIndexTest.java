@@ -0,0 +1,88 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import com.google.carrier.CarrierConfig;
+import com.google.carrier.CarrierSettings;
+import com.google.carrier.MultiCarrierSettings;
+import com.google.carrier.Timestamp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MultiCarrierSettingsIndexTest {
+    private static final Timestamp LAST_UPDATED = Timestamp.newBuilder().setSeconds(1_700_000_000L).build();
+
+    @Test
+    public void firstEntryOfCanonicalNameWins() throws Exception {
+        CarrierSettings first = settings("a", "first");
+        MultiCarrierSettings mcs = MultiCarrierSettings.newBuilder()
+                .setVersion(5L)
+                .setLastUpdated(LAST_UPDATED)
+                .addSetting(first)
+                .addSetting(settings("b", "b"))
+                .addSetting(settings("a", "second"))
+                .build();
+
+        var index = MultiCarrierSettingsIndex.build(ByteBuffer.wrap(mcs.toByteArray()));
+        assertEquals(2, index.size());
+        assertEquals(withVersion(first, 5L, LAST_UPDATED), index.get("a"));
+        assertNull(index.get("c"));
+    }
+
+    @Test
+    public void versionAndTimestampApplyRegardlessOfFieldOrder() throws Exception {
+        CarrierSettings a = settings("a", "a");
+        Timestamp ts = Timestamp.newBuilder().setSeconds(42L).build();
+        // serialized messages are merged when concatenated, the version comes after the settings
+        var out = new ByteArrayOutputStream();
+        MultiCarrierSettings.newBuilder().setVersion(1L).addSetting(a).build().writeTo(out);
+        MultiCarrierSettings.newBuilder().setVersion(7L).setLastUpdated(ts).build().writeTo(out);
+        byte[] bytes = out.toByteArray();
+
+        var index = MultiCarrierSettingsIndex.build(ByteBuffer.wrap(bytes));
+        assertEquals(7L, index.version);
+        assertEquals(ts, index.lastUpdated);
+        assertEquals(withVersion(a, 7L, ts), index.get("a"));
+        // same result as regular parsing of the whole file
+        CarrierSettings parsed = MultiCarrierSettings.parseFrom(bytes).getSetting(0);
+        assertEquals(withVersion(parsed, 7L, ts), index.get("a"));
+    }
+
+    @Test
+    public void ownVersionOfEntryIsReplaced() throws Exception {
+        CarrierSettings a = settings("a", "a").toBuilder().setVersion(99L).build();
+        MultiCarrierSettings mcs = MultiCarrierSettings.newBuilder()
+                .setVersion(3L)
+                .setLastUpdated(LAST_UPDATED)
+                .addSetting(a)
+                .build();
+
+        var index = MultiCarrierSettingsIndex.build(ByteBuffer.wrap(mcs.toByteArray()));
+        assertEquals(3L, index.get("a").getVersion());
+        assertEquals(LAST_UPDATED, index.get("a").getLastUpdated());
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        var index = MultiCarrierSettingsIndex.build(ByteBuffer.allocate(0));
+        assertEquals(0, index.size());
+        assertEquals(0L, index.version);
+        assertNull(index.get("a"));
+    }
+
+    private static CarrierSettings settings(String canonicalName, String value) {
+        var config = CarrierConfig.Config.newBuilder().setKey("key_string").setTextValue(value);
+        return CarrierSettings.newBuilder()
+                .setCanonicalName(canonicalName)
+                .setConfigs(CarrierConfig.newBuilder().addConfig(config))
+                .build();
+    }
+
+    private static CarrierSettings withVersion(CarrierSettings cs, long version, Timestamp lastUpdated) {
+        return cs.toBuilder().setVersion(version).setLastUpdated(lastUpdated).build();
+    }
+}
@@ -0,0 +1,83 @@
+package android.content;
+
+import android.net.Uri;
+
+public class ContentProviderOperation {
+    public static final int TYPE_INSERT = 1;
+    public static final int TYPE_UPDATE = 2;
+    public static final int TYPE_DELETE = 3;
+
+    private final int type;
+    private final Uri uri;
+    private final ContentValues values;
+    private final String selection;
+    private final String[] selectionArgs;
+
+    private ContentProviderOperation(Builder b) {
+        type = b.type;
+        uri = b.uri;
+        values = b.values;
+        selection = b.selection;
+        selectionArgs = b.selectionArgs;
+    }
+
+    public static Builder newInsert(Uri uri) {
+        return new Builder(TYPE_INSERT, uri);
+    }
+
+    public static Builder newUpdate(Uri uri) {
+        return new Builder(TYPE_UPDATE, uri);
+    }
+
+    public static Builder newDelete(Uri uri) {
+        return new Builder(TYPE_DELETE, uri);
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    public ContentValues getValues() {
+        return values;
+    }
+
+    public String getSelection() {
+        return selection;
+    }
+
+    public String[] getSelectionArgs() {
+        return selectionArgs;
+    }
+
+    public static class Builder {
+        private final int type;
+        private final Uri uri;
+        private ContentValues values;
+        private String selection;
+        private String[] selectionArgs;
+
+        private Builder(int type, Uri uri) {
+            this.type = type;
+            this.uri = uri;
+        }
+
+        public Builder withValues(ContentValues values) {
+            this.values = new ContentValues(values);
+            return this;
+        }
+
+        public Builder withSelection(String selection, String[] selectionArgs) {
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            return this;
+        }
+
+        public ContentProviderOperation build() {
+            return new ContentProviderOperation(this);
+        }
+    }
+}
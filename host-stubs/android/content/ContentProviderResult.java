@@ -0,0 +1,9 @@
+package android.content;
+
+public class ContentProviderResult {
+    public final int count;
+
+    public ContentProviderResult(int count) {
+        this.count = count;
+    }
+}
@@ -0,0 +1,29 @@
+package android.content;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+
+// Benchmarks don't have a content provider, operations fail unless they are overridden
+public class ContentResolver {
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        throw new UnsupportedOperationException(uri.toString());
+    }
+
+    public int delete(Uri url, String where, String[] selectionArgs) {
+        throw new UnsupportedOperationException(url.toString());
+    }
+
+    public int bulkInsert(Uri url, ContentValues[] values) {
+        throw new UnsupportedOperationException(url.toString());
+    }
+
+    public ContentProviderResult[] applyBatch(String authority,
+            ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        throw new UnsupportedOperationException(authority);
+    }
+}
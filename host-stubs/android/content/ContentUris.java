@@ -0,0 +1,11 @@
+package android.content;
+
+import android.net.Uri;
+
+public class ContentUris {
+    private ContentUris() {}
+
+    public static Uri withAppendedId(Uri contentUri, long id) {
+        return Uri.withAppendedPath(contentUri, Long.toString(id));
+    }
+}
@@ -0,0 +1,93 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+public final class ContentValues {
+    private final HashMap<String, Object> values;
+
+    public ContentValues() {
+        values = new HashMap<>();
+    }
+
+    public ContentValues(int size) {
+        values = new HashMap<>(size);
+    }
+
+    public ContentValues(ContentValues from) {
+        values = new HashMap<>(from.values);
+    }
+
+    public void put(String key, String value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, Integer value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, Long value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, Boolean value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, Double value) {
+        values.put(key, value);
+    }
+
+    public void putAll(ContentValues other) {
+        values.putAll(other.values);
+    }
+
+    public void putNull(String key) {
+        values.put(key, null);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    public boolean containsKey(String key) {
+        return values.containsKey(key);
+    }
+
+    public Object get(String key) {
+        return values.get(key);
+    }
+
+    public String getAsString(String key) {
+        Object v = values.get(key);
+        return v != null ? v.toString() : null;
+    }
+
+    public Set<String> keySet() {
+        return values.keySet();
+    }
+
+    public Set<Map.Entry<String, Object>> valueSet() {
+        return values.entrySet();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ContentValues && values.equals(((ContentValues) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
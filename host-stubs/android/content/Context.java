@@ -0,0 +1,38 @@
+package android.content;
+
+import android.content.pm.PackageManager;
+
+import java.io.File;
+
+// Benchmarks, tests and host tools provide their own subclass, operations that aren't overridden fail
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0x0000;
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public PackageManager getPackageManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    public ContentResolver getContentResolver() {
+        throw new UnsupportedOperationException();
+    }
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        throw new UnsupportedOperationException(name);
+    }
+
+    public boolean deleteSharedPreferences(String name) {
+        throw new UnsupportedOperationException(name);
+    }
+
+    public Context createDeviceProtectedStorageContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,11 @@
+package android.content;
+
+public class OperationApplicationException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public OperationApplicationException() {}
+
+    public OperationApplicationException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,23 @@
+package android.content;
+
+import java.util.Map;
+
+public interface SharedPreferences {
+    Map<String, ?> getAll();
+
+    long getLong(String key, long defValue);
+
+    Editor edit();
+
+    interface Editor {
+        Editor putLong(String key, long value);
+
+        Editor remove(String key);
+
+        Editor clear();
+
+        boolean commit();
+
+        void apply();
+    }
+}
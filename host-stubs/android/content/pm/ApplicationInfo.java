@@ -0,0 +1,8 @@
+package android.content.pm;
+
+public class ApplicationInfo {
+    public static final int FLAG_SYSTEM = 1 << 0;
+
+    public String packageName;
+    public int flags;
+}
@@ -0,0 +1,16 @@
+package android.content.pm;
+
+public abstract class PackageManager {
+    public static class NameNotFoundException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public NameNotFoundException() {}
+
+        public NameNotFoundException(String name) {
+            super(name);
+        }
+    }
+
+    public abstract ApplicationInfo getApplicationInfo(String packageName, int flags)
+            throws NameNotFoundException;
+}
@@ -0,0 +1,9 @@
+package android.database.sqlite;
+
+public class SQLiteException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public SQLiteException(String error) {
+        super(error);
+    }
+}
@@ -0,0 +1,48 @@
+package android.net;
+
+public final class Uri {
+    private final String str;
+
+    private Uri(String str) {
+        this.str = str;
+    }
+
+    public static Uri parse(String str) {
+        return new Uri(str);
+    }
+
+    public static Uri withAppendedPath(Uri baseUri, String pathSegment) {
+        String base = baseUri.str;
+        return new Uri(base.endsWith("/") ? base + pathSegment : base + '/' + pathSegment);
+    }
+
+    public String getAuthority() {
+        int start = str.indexOf("://");
+        if (start < 0) {
+            return null;
+        }
+        start += 3;
+        int end = str.indexOf('/', start);
+        return end < 0 ? str.substring(start) : str.substring(start, end);
+    }
+
+    public String getSchemeSpecificPart() {
+        int idx = str.indexOf(':');
+        return idx < 0 ? str : str.substring(idx + 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Uri && str.equals(((Uri) o).str);
+    }
+
+    @Override
+    public int hashCode() {
+        return str.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return str;
+    }
+}
@@ -0,0 +1,11 @@
+package android.os;
+
+import java.io.File;
+
+public class Environment {
+    private Environment() {}
+
+    public static File getProductDirectory() {
+        return new File(System.getProperty("carrierconfig2.host.productDir", "/product"));
+    }
+}
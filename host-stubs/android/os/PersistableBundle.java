@@ -0,0 +1,168 @@
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+public final class PersistableBundle {
+    private final HashMap<String, Object> map;
+
+    public PersistableBundle() {
+        map = new HashMap<>();
+    }
+
+    public PersistableBundle(int capacity) {
+        map = new HashMap<>(capacity);
+    }
+
+    public PersistableBundle(PersistableBundle b) {
+        map = new HashMap<>(b.map);
+    }
+
+    public PersistableBundle deepCopy() {
+        var res = new PersistableBundle(map.size());
+        for (Map.Entry<String, Object> e : map.entrySet()) {
+            res.map.put(e.getKey(), deepCopyValue(e.getValue()));
+        }
+        return res;
+    }
+
+    private static Object deepCopyValue(Object v) {
+        if (v instanceof PersistableBundle) {
+            return ((PersistableBundle) v).deepCopy();
+        }
+        if (v instanceof int[]) {
+            return ((int[]) v).clone();
+        }
+        if (v instanceof long[]) {
+            return ((long[]) v).clone();
+        }
+        if (v instanceof double[]) {
+            return ((double[]) v).clone();
+        }
+        if (v instanceof boolean[]) {
+            return ((boolean[]) v).clone();
+        }
+        if (v instanceof String[]) {
+            return ((String[]) v).clone();
+        }
+        return v;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public boolean containsKey(String key) {
+        return map.containsKey(key);
+    }
+
+    public Object get(String key) {
+        return map.get(key);
+    }
+
+    public void remove(String key) {
+        map.remove(key);
+    }
+
+    public Set<String> keySet() {
+        return map.keySet();
+    }
+
+    public void putAll(PersistableBundle bundle) {
+        map.putAll(bundle.map);
+    }
+
+    public void putString(String key, String value) {
+        map.put(key, value);
+    }
+
+    public void putInt(String key, int value) {
+        map.put(key, value);
+    }
+
+    public void putLong(String key, long value) {
+        map.put(key, value);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        map.put(key, value);
+    }
+
+    public void putDouble(String key, double value) {
+        map.put(key, value);
+    }
+
+    public void putStringArray(String key, String[] value) {
+        map.put(key, value);
+    }
+
+    public void putIntArray(String key, int[] value) {
+        map.put(key, value);
+    }
+
+    public void putLongArray(String key, long[] value) {
+        map.put(key, value);
+    }
+
+    public void putDoubleArray(String key, double[] value) {
+        map.put(key, value);
+    }
+
+    public void putBooleanArray(String key, boolean[] value) {
+        map.put(key, value);
+    }
+
+    public void putPersistableBundle(String key, PersistableBundle value) {
+        map.put(key, value);
+    }
+
+    public String getString(String key) {
+        Object v = map.get(key);
+        return v instanceof String ? (String) v : null;
+    }
+
+    public int getInt(String key) {
+        Object v = map.get(key);
+        return v instanceof Integer ? (Integer) v : 0;
+    }
+
+    public long getLong(String key) {
+        Object v = map.get(key);
+        return v instanceof Long ? (Long) v : 0L;
+    }
+
+    public boolean getBoolean(String key) {
+        Object v = map.get(key);
+        return v instanceof Boolean ? (Boolean) v : false;
+    }
+
+    public double getDouble(String key) {
+        Object v = map.get(key);
+        return v instanceof Double ? (Double) v : 0.0;
+    }
+
+    public String[] getStringArray(String key) {
+        Object v = map.get(key);
+        return v instanceof String[] ? (String[]) v : null;
+    }
+
+    public int[] getIntArray(String key) {
+        Object v = map.get(key);
+        return v instanceof int[] ? (int[]) v : null;
+    }
+
+    public PersistableBundle getPersistableBundle(String key) {
+        Object v = map.get(key);
+        return v instanceof PersistableBundle ? (PersistableBundle) v : null;
+    }
+
+    @Override
+    public String toString() {
+        return "PersistableBundle" + map;
+    }
+}
@@ -0,0 +1,11 @@
+package android.os;
+
+public class RemoteException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public RemoteException() {}
+
+    public RemoteException(String message) {
+        super(message);
+    }
+}
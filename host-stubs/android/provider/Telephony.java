@@ -0,0 +1,56 @@
+package android.provider;
+
+import android.net.Uri;
+
+public final class Telephony {
+    private Telephony() {}
+
+    public static final class Carriers {
+        public static final Uri CONTENT_URI = Uri.parse("content://telephony/carriers");
+
+        public static final String _ID = "_id";
+        public static final String NAME = "name";
+        public static final String APN = "apn";
+        public static final String PROXY = "proxy";
+        public static final String PORT = "port";
+        public static final String MMSPROXY = "mmsproxy";
+        public static final String MMSPORT = "mmsport";
+        public static final String SERVER = "server";
+        public static final String USER = "user";
+        public static final String PASSWORD = "password";
+        public static final String MMSC = "mmsc";
+        public static final String MCC = "mcc";
+        public static final String MNC = "mnc";
+        public static final String NUMERIC = "numeric";
+        public static final String AUTH_TYPE = "authtype";
+        public static final String TYPE = "type";
+        public static final String PROTOCOL = "protocol";
+        public static final String ROAMING_PROTOCOL = "roaming_protocol";
+        public static final String BEARER_BITMASK = "bearer_bitmask";
+        public static final String MVNO_TYPE = "mvno_type";
+        public static final String MVNO_MATCH_DATA = "mvno_match_data";
+        public static final String PROFILE_ID = "profile_id";
+        public static final String MODEM_PERSIST = "modem_cognitive";
+        public static final String MAX_CONNECTIONS = "max_conns";
+        public static final String WAIT_TIME_RETRY = "wait_time";
+        public static final String TIME_LIMIT_FOR_MAX_CONNECTIONS = "max_conns_time";
+        public static final String MTU = "mtu";
+        public static final String MTU_V6 = "mtu_v6";
+        public static final String EDITED_STATUS = "edited";
+        public static final String USER_VISIBLE = "user_visible";
+        public static final String USER_EDITABLE = "user_editable";
+        public static final String APN_SET_ID = "apn_set_id";
+        public static final String SKIP_464XLAT = "skip_464xlat";
+        public static final String LINGERING_NETWORK_TYPE_BITMASK = "lingering_network_type_bitmask";
+        public static final String ALWAYS_ON = "always_on";
+        public static final String CARRIER_ENABLED = "carrier_enabled";
+        public static final String NETWORK_TYPE_BITMASK = "network_type_bitmask";
+        public static final String MTU_V4 = "mtu_v4";
+
+        public static final int UNEDITED = 0;
+
+        public static final int SKIP_464XLAT_DEFAULT = -1;
+        public static final int SKIP_464XLAT_DISABLE = 0;
+        public static final int SKIP_464XLAT_ENABLE = 1;
+    }
+}
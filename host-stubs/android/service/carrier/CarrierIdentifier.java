@@ -0,0 +1,74 @@
+package android.service.carrier;
+
+import java.util.Objects;
+
+public class CarrierIdentifier {
+    private final String mMcc;
+    private final String mMnc;
+    private final String mSpn;
+    private final String mImsi;
+    private final String mGid1;
+    private final String mGid2;
+
+    public CarrierIdentifier(String mcc, String mnc, String spn, String imsi, String gid1,
+                             String gid2) {
+        mMcc = mcc;
+        mMnc = mnc;
+        mSpn = spn;
+        mImsi = imsi;
+        mGid1 = gid1;
+        mGid2 = gid2;
+    }
+
+    public String getMcc() {
+        return mMcc;
+    }
+
+    public String getMnc() {
+        return mMnc;
+    }
+
+    public String getSpn() {
+        return mSpn;
+    }
+
+    public String getImsi() {
+        return mImsi;
+    }
+
+    public String getGid1() {
+        return mGid1;
+    }
+
+    public String getGid2() {
+        return mGid2;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CarrierIdentifier)) {
+            return false;
+        }
+        CarrierIdentifier that = (CarrierIdentifier) obj;
+        return Objects.equals(mMcc, that.mMcc)
+                && Objects.equals(mMnc, that.mMnc)
+                && Objects.equals(mSpn, that.mSpn)
+                && Objects.equals(mImsi, that.mImsi)
+                && Objects.equals(mGid1, that.mGid1)
+                && Objects.equals(mGid2, that.mGid2);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mMcc, mMnc, mSpn, mImsi, mGid1, mGid2);
+    }
+
+    @Override
+    public String toString() {
+        return "CarrierIdentifier{mcc=" + mMcc + ",mnc=" + mMnc + ",spn=" + mSpn + ",imsi=" + mImsi
+                + ",gid1=" + mGid1 + ",gid2=" + mGid2 + "}";
+    }
+}
@@ -0,0 +1,29 @@
+package android.telephony.data;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+public class ApnSetting {
+    public static final int MVNO_TYPE_SPN = 0;
+    public static final int MVNO_TYPE_IMSI = 1;
+    public static final int MVNO_TYPE_GID = 2;
+    public static final int MVNO_TYPE_ICCID = 3;
+
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface MvnoType {}
+
+    public static String getMvnoTypeStringFromInt(int mvnoType) {
+        switch (mvnoType) {
+            case MVNO_TYPE_SPN:
+                return "spn";
+            case MVNO_TYPE_IMSI:
+                return "imsi";
+            case MVNO_TYPE_GID:
+                return "gid";
+            case MVNO_TYPE_ICCID:
+                return "iccid";
+            default:
+                return "";
+        }
+    }
+}
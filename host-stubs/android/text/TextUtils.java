@@ -0,0 +1,13 @@
+package android.text;
+
+public class TextUtils {
+    private TextUtils() {}
+
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+
+    public static String nullIfEmpty(String str) {
+        return isEmpty(str) ? null : str;
+    }
+}
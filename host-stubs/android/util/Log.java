@@ -0,0 +1,44 @@
+package android.util;
+
+// Logging is disabled by default to keep it out of benchmark measurements and tool output, messages
+// are still built. Set the "carrierconfig2.host.log" system property to print them.
+public final class Log {
+    private static final boolean ENABLED = Boolean.getBoolean("carrierconfig2.host.log");
+
+    private Log() {}
+
+    public static int d(String tag, String msg) {
+        return println("D", tag, msg, null);
+    }
+
+    public static int i(String tag, String msg) {
+        return println("I", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg) {
+        return println("W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return println("W", tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return println("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println("E", tag, msg, tr);
+    }
+
+    private static int println(String level, String tag, String msg, Throwable tr) {
+        if (!ENABLED) {
+            return 0;
+        }
+        System.err.println(level + "/" + tag + ": " + msg);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+        return 0;
+    }
+}
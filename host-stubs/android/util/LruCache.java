@@ -0,0 +1,110 @@
+package android.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class LruCache<K, V> {
+    private final LinkedHashMap<K, V> map;
+    private int size;
+    private int maxSize;
+    private int hitCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+
+    public LruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<>(0, 0.75f, true);
+    }
+
+    public final synchronized V get(K key) {
+        V v = map.get(key);
+        if (v != null) {
+            ++hitCount;
+        } else {
+            ++missCount;
+        }
+        return v;
+    }
+
+    public final synchronized V put(K key, V value) {
+        ++putCount;
+        size += safeSizeOf(key, value);
+        V prev = map.put(key, value);
+        if (prev != null) {
+            size -= safeSizeOf(key, prev);
+        }
+        trimToSize(maxSize);
+        return prev;
+    }
+
+    public final synchronized V remove(K key) {
+        V prev = map.remove(key);
+        if (prev != null) {
+            size -= safeSizeOf(key, prev);
+        }
+        return prev;
+    }
+
+    public synchronized void trimToSize(int maxSize) {
+        var it = map.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<K, V> e = it.next();
+            it.remove();
+            size -= safeSizeOf(e.getKey(), e.getValue());
+            ++evictionCount;
+        }
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    public synchronized void resize(int maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public final synchronized int size() {
+        return size;
+    }
+
+    public final synchronized int maxSize() {
+        return maxSize;
+    }
+
+    public final synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public final synchronized int missCount() {
+        return missCount;
+    }
+
+    public final synchronized int putCount() {
+        return putCount;
+    }
+
+    public final synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    public final synchronized Map<K, V> snapshot() {
+        return new LinkedHashMap<>(map);
+    }
+}
@@ -0,0 +1,13 @@
+package com.android.internal.util;
+
+public class Preconditions {
+    private Preconditions() {}
+
+    public static int checkArgumentInRange(int value, int lower, int upper, String valueName) {
+        if (value < lower || value > upper) {
+            throw new IllegalArgumentException(valueName + " is out of range of [" + lower + ", "
+                    + upper + "] (" + value + ")");
+        }
+        return value;
+    }
+}
@@ -6,10 +6,13 @@ import android.service.carrier.ApnService;
 import android.service.carrier.CarrierIdentifier;
 import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
 
 import app.grapheneos.carrierconfig2.loader.Apns;
 import app.grapheneos.carrierconfig2.loader.CSettingsDir;
+import app.grapheneos.carrierconfig2.loader.LoaderMetrics;
 
 import static java.util.Collections.emptyList;
 
@@ -34,4 +37,10 @@ public class ApnServiceImpl extends ApnService {
 
         return Apns.getApnContentValues(csd, carrierId);
     }
+
+    // metrics are process-wide, this is the same output as the one of CarrierServiceImpl
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        LoaderMetrics.dump(writer);
+    }
 }
@@ -1,17 +1,75 @@
 package app.grapheneos.carrierconfig2;
 
 import android.annotation.Nullable;
+import android.os.Build;
 import android.os.PersistableBundle;
 import android.service.carrier.CarrierIdentifier;
 import android.service.carrier.CarrierService;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import app.grapheneos.carrierconfig2.loader.CSettingsDir;
 import app.grapheneos.carrierconfig2.loader.CarrierConfigLoader;
+import app.grapheneos.carrierconfig2.loader.LoaderMetrics;
 
 public class CarrierServiceImpl extends CarrierService {
     static final String TAG = CarrierServiceImpl.class.getSimpleName();
 
+    // onCreate() runs again when the service is recreated in the same process (e.g. after a
+    // rebind), warm-up and snapshot loading are done once per process
+    private static final AtomicBoolean warmUpStarted = new AtomicBoolean();
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        LoaderMetrics.onServiceCreated();
+        PackageChangeReceiver.register(this);
+
+        var csd = CSettingsDir.getDefault();
+        if (csd != null && warmUpStarted.compareAndSet(false, true)) {
+            // snapshot is compiled on the first start after each OS update
+            var snapshotFile = new File(getFilesDir(), "csettings_snapshot");
+            new Thread(() -> {
+                // warm-up is done first: it's much cheaper than snapshot loading, and it covers the
+                // first onLoadConfig() calls, which block telephony from reporting that carrier
+                // config is ready
+                warmUp(csd);
+                csd.loadSnapshot(snapshotFile, Build.FINGERPRINT);
+            }, "CSettingsWarmUp").start();
+        }
+    }
+
+    // Prefetches settings of active SIMs. Settings dir is on the product partition and the app is
+    // direct boot aware, there's no need to wait for the user to unlock the device
+    private void warmUp(CSettingsDir csd) {
+        var carrierIds = new ArrayList<CarrierIdentifier>();
+        try {
+            List<SubscriptionInfo> subs = getSystemService(SubscriptionManager.class)
+                    .getActiveSubscriptionInfoList();
+            if (subs != null) {
+                for (SubscriptionInfo si : subs) {
+                    CarrierIdentifier carrierId = Utils.subIdToCarrierId(this, si.getSubscriptionId());
+                    if (carrierId != null) {
+                        carrierIds.add(carrierId);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // defaults are still prefetched
+            Log.e(TAG, "unable to get active subscriptions", e);
+        }
+        Log.d(TAG, "warming up for " + carrierIds);
+        new CarrierConfigLoader(getApplicationContext(), csd).prefetch(carrierIds);
+    }
+
     @Nullable
     @Override
     public PersistableBundle onLoadConfig(int subId, @Nullable CarrierIdentifier carrierId) {
@@ -31,4 +89,10 @@ public class CarrierServiceImpl extends CarrierService {
         // this method is deprecated and should never be called by the OS
         throw new IllegalStateException(String.valueOf(id));
     }
+
+    // adb shell dumpsys activity service app.grapheneos.carrierconfig2/.CarrierServiceImpl
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        LoaderMetrics.dump(writer);
+    }
 }
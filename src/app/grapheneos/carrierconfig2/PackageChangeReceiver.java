@@ -0,0 +1,45 @@
+package app.grapheneos.carrierconfig2;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.util.Log;
+
+import app.grapheneos.carrierconfig2.loader.CarrierConfigLoader;
+
+// Invalidates cached results of config filtering and package lookups, they depend on the set of
+// installed system packages
+public class PackageChangeReceiver extends BroadcastReceiver {
+    static final String TAG = PackageChangeReceiver.class.getSimpleName();
+
+    private static boolean registered;
+
+    static void register(Context ctx) {
+        synchronized (PackageChangeReceiver.class) {
+            if (registered) {
+                return;
+            }
+            registered = true;
+        }
+
+        var filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+
+        ctx.getApplicationContext().registerReceiver(new PackageChangeReceiver(), filter,
+                Context.RECEIVER_NOT_EXPORTED);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Uri data = intent.getData();
+        String packageName = data != null ? data.getSchemeSpecificPart() : null;
+        Log.d(TAG, intent.getAction() + " " + packageName);
+        CarrierConfigLoader.onPackageStateChanged(packageName);
+    }
+}
@@ -18,9 +18,11 @@ import com.android.internal.gmscompat.gcarriersettings.GCarrierSettingsApp;
 import com.android.internal.gmscompat.gcarriersettings.ICarrierConfigsLoader;
 import com.android.internal.gmscompat.gcarriersettings.TestCarrierConfigService;
 
+import java.io.File;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
+import app.grapheneos.carrierconfig2.loader.BinderGcsConfigSource;
 import app.grapheneos.carrierconfig2.loader.CmpTest;
 
 public class TestActivity extends Activity implements ServiceConnection {
@@ -73,7 +75,14 @@ public class TestActivity extends Activity implements ServiceConnection {
 
         bgExecutor.execute(() -> {
             try {
-                new CmpTest(iCarrierConfigsLoader, this::log).run();
+                var cmpTest = new CmpTest(getApplicationContext(),
+                        new BinderGcsConfigSource(iCarrierConfigsLoader), this::log);
+                cmpTest.useBatches(16);
+                // can be replayed offline with CarrierConfig2CmpReplay
+                var dumpFile = new File(getExternalFilesDir(null), "gcs_dump.pb");
+                cmpTest.recordTo(dumpFile);
+                log("recording GCS configs to " + dumpFile);
+                cmpTest.run();
             } catch (Exception e) {
                 log(Utils.printStackTraceToString(e));
             }
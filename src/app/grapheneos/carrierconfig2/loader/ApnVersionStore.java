@@ -0,0 +1,261 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.annotation.Nullable;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import app.grapheneos.carrierconfig2.Prefs;
+
+// Versions of CSettings whose APNs were last written to the APN database, keyed by canonical name.
+// Allows to skip APN updates when CSettings version hasn't changed, see CarrierConfigLoader.
+//
+// File format: header (MAGIC, FORMAT_VERSION), followed by records that are appended on each store:
+// canonical name length (u16), canonical name (UTF-8), CSettings version (i64), CRC32 of the
+// preceding record bytes (i32). The last record of each canonical name wins. A torn record at the
+// end of the file (e.g. after a crash during append) fails the CRC check and is ignored together
+// with the records after it.
+//
+// Entries are evicted in LRU order once there are more than MAX_ENTRIES of them. To keep the LRU
+// order across restarts, the first access of each entry in a process appends a record too, and
+// records of the same canonical name move it to the most recently used position when the file is
+// loaded. Later accesses in the same process aren't recorded, restart-time order of entries follows
+// the order of their first access, not of the last one. The file is compacted when it accumulates
+// too many stale records: compacted contents are written to a temporary file, which then atomically
+// replaces the state file.
+class ApnVersionStore {
+    private static final String TAG = ApnVersionStore.class.getSimpleName();
+
+    private static final int MAGIC = 0x41505653; // "APVS"
+    private static final int FORMAT_VERSION = 1;
+
+    static final int MAX_ENTRIES = 100;
+    // number of records in the file after which it's compacted
+    private static final int MAX_RECORDS = 4 * MAX_ENTRIES;
+
+    private final File file;
+    // canonical name -> CSettings version, in access order
+    private final LinkedHashMap<String, Long> versions = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    // canonical names whose access was already recorded in the file by this process
+    private final HashSet<String> recordedAccesses = new HashSet<>();
+    private boolean loaded;
+    // number of records in the file, including stale ones
+    private int numRecords;
+
+    ApnVersionStore(File file) {
+        this.file = file;
+    }
+
+    private static volatile ApnVersionStore instance;
+
+    // State is kept in device protected storage, APNs are updated before the first unlock
+    static ApnVersionStore get(Context ctx) {
+        ApnVersionStore s = instance;
+        if (s == null) {
+            synchronized (ApnVersionStore.class) {
+                s = instance;
+                if (s == null) {
+                    Context deCtx = ctx.createDeviceProtectedStorageContext();
+                    s = new ApnVersionStore(new File(deCtx.getFilesDir(), "apn_csettings_versions"));
+                    s.migrateFromPrefs(deCtx);
+                    instance = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    // Returns null if the store wasn't used yet by this process
+    @Nullable
+    static ApnVersionStore peekInstance() {
+        return instance;
+    }
+
+    synchronized boolean isCurrent(String canonicalName, long version) {
+        ensureLoaded();
+        Long v = versions.get(canonicalName);
+        if (v != null && v == version) {
+            LoaderMetrics.apnVersionHits.increment();
+            recordAccess(canonicalName, version);
+            return true;
+        }
+        LoaderMetrics.apnVersionMisses.increment();
+        return false;
+    }
+
+    synchronized void put(String canonicalName, long version) {
+        ensureLoaded();
+        Long prev = versions.put(canonicalName, version);
+        if (prev != null && prev == version) {
+            recordAccess(canonicalName, version);
+            return;
+        }
+        recordedAccesses.add(canonicalName);
+        appendRecord(canonicalName, version);
+    }
+
+    private void recordAccess(String canonicalName, long version) {
+        if (recordedAccesses.add(canonicalName)) {
+            appendRecord(canonicalName, version);
+        }
+    }
+
+    private void appendRecord(String canonicalName, long version) {
+        if (numRecords + 1 > MAX_RECORDS || !file.isFile()) {
+            compact();
+            return;
+        }
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            writeRecord(out, canonicalName, version);
+            ++numRecords;
+        } catch (IOException e) {
+            Log.e(TAG, "unable to append to " + file, e);
+            // the file might end with a torn record now, rewrite it on the next append
+            numRecords = MAX_RECORDS;
+        }
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println(TAG + ": entries " + versions.size() + " / " + MAX_ENTRIES
+                + "; records " + numRecords + " / " + MAX_RECORDS);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.isFile()) {
+            return;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                Log.w(TAG, "unknown format of " + file + ", discarding it");
+                compact();
+                return;
+            }
+            var crc = new CRC32();
+            while (true) {
+                int nameLen;
+                try {
+                    nameLen = in.readUnsignedShort();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] name = new byte[nameLen];
+                in.readFully(name);
+                long version = in.readLong();
+                int expectedCrc = in.readInt();
+
+                crc.reset();
+                updateCrc(crc, name, version);
+                if ((int) crc.getValue() != expectedCrc) {
+                    throw new IOException("CRC mismatch");
+                }
+                versions.put(new String(name, StandardCharsets.UTF_8), version);
+                ++numRecords;
+            }
+        } catch (IOException e) {
+            // EOFException from readFully() or readLong() is a torn record
+            Log.w(TAG, "ignoring the tail of " + file + " after " + numRecords + " records", e);
+            // rewrite the file to not append after a torn record
+            compact();
+        }
+    }
+
+    // Atomically replaces the file with the current entries, in LRU order
+    private void compact() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (var fos = new FileOutputStream(tmp);
+                 var out = new DataOutputStream(new BufferedOutputStream(fos))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                for (Map.Entry<String, Long> e : versions.entrySet()) {
+                    writeRecord(out, e.getKey(), e.getValue());
+                }
+                out.flush();
+                fos.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            numRecords = versions.size();
+        } catch (IOException e) {
+            Log.e(TAG, "unable to write " + file, e);
+            tmp.delete();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, String canonicalName, long version)
+            throws IOException {
+        byte[] name = canonicalName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xffff) {
+            throw new IllegalArgumentException("too long canonical name " + canonicalName);
+        }
+        var crc = new CRC32();
+        updateCrc(crc, name, version);
+        out.writeShort(name.length);
+        out.write(name);
+        out.writeLong(version);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void updateCrc(CRC32 crc, byte[] name, long version) {
+        crc.update(name.length >> 8);
+        crc.update(name.length);
+        crc.update(name);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (version >> shift));
+        }
+    }
+
+    // Imports versions from SharedPreferences that were used before this store was added, to avoid
+    // rewriting APNs of all carriers after the upgrade
+    private void migrateFromPrefs(Context ctx) {
+        if (file.exists()) {
+            return;
+        }
+        String ns = Prefs.Namespace.APN_CSETTINGS_VERSIONS;
+        SharedPreferences prefs = Prefs.get(ctx, ns);
+        Map<String, ?> legacy = prefs.getAll();
+        if (legacy.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            loaded = true;
+            for (Map.Entry<String, ?> e : legacy.entrySet()) {
+                if (e.getValue() instanceof Long) {
+                    versions.put(e.getKey(), (Long) e.getValue());
+                }
+            }
+            compact();
+            Log.d(TAG, "migrated " + versions.size() + " entries from SharedPreferences");
+        }
+        if (file.isFile()) {
+            ctx.deleteSharedPreferences(ns);
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package app.grapheneos.carrierconfig2.loader;
 
+import android.annotation.Nullable;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.provider.Telephony;
 import android.service.carrier.CarrierIdentifier;
 import android.text.TextUtils;
@@ -15,6 +21,7 @@ import com.google.carrier.CarrierId;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 
 import static java.util.Collections.emptyList;
 
@@ -25,7 +32,8 @@ public class Apns {
     static void update(Context ctx, CSettings cSettings) {
         String TAG = "updateApns";
 
-        deleteUneditedApnsForCarrierId(ctx, cSettings.carrierId2.protoCarrierId);
+        int numDeletedRows = deleteUneditedApnsForCarrierId(ctx, cSettings.carrierId2.protoCarrierId);
+        LoaderMetrics.apnRowsDeleted.add(numDeletedRows);
 
         List<ContentValues> list = getApnContentValues(cSettings);
         if (list.isEmpty()) {
@@ -36,13 +44,206 @@ public class Apns {
         int numNewRows = ctx.getContentResolver().bulkInsert(Telephony.Carriers.CONTENT_URI,
                 list.toArray(new ContentValues[0]));
         Log.d(TAG, "numNewRows: " + numNewRows);
+        LoaderMetrics.apnRowsInserted.add(numNewRows);
     }
 
-    private static ContentValues apnItemToContentValues(ApnItem i, CarrierId protoCarrierId) {
-        var cv = new ContentValues();
-        cv.put(Telephony.Carriers.APN, i.getValue());
-        cv.put(Telephony.Carriers.NAME, i.getName());
+    // Brings unedited APNs of the carrier to the same state as update() does, but touches only the
+    // rows that differ: unchanged rows are kept, changed and extra rows are deleted, and changed and
+    // missing rows are inserted, all in a single applyBatch() call. Changed rows are deleted and
+    // reinserted instead of being updated in place to reset the columns that aren't set by
+    // apnItemToContentValues() to their defaults, as update() does.
+    // Unlike update(), doesn't preserve the row order that is produced by Google's CarrierSettings app.
+    static void updateIncrementally(Context ctx, CSettings cSettings) {
+        String TAG = "updateApnsIncrementally";
+
+        List<ContentValues> desired = getApnContentValues(cSettings);
+        var sel = new UneditedApnsSelection(cSettings.carrierId2.protoCarrierId);
+        ContentResolver cr = ctx.getContentResolver();
+
+        // projection[0] is _ID
+        String[] projection = new String[COMPARED_COLUMNS.length + 1];
+        projection[0] = Telephony.Carriers._ID;
+        System.arraycopy(COMPARED_COLUMNS, 0, projection, 1, COMPARED_COLUMNS.length);
+
+        var existingIds = new ArrayList<Long>();
+        var existingValues = new ArrayList<Object[]>();
+        // unknown column in the projection (e.g. with an older TelephonyProvider) is reported
+        // with an IllegalArgumentException or an SQLiteException
+        try (Cursor c = cr.query(Telephony.Carriers.CONTENT_URI, projection, sel.where,
+                sel.selectionArgs, null)) {
+            if (c == null) {
+                Log.e(TAG, "query returned null, falling back to full update");
+                update(ctx, cSettings);
+                return;
+            }
+            while (c.moveToNext()) {
+                existingIds.add(c.getLong(0));
+                var row = new Object[projection.length];
+                for (int i = 1; i < projection.length; ++i) {
+                    row[i] = readColumn(c, i);
+                }
+                existingValues.add(row);
+            }
+        } catch (SQLiteException | IllegalArgumentException e) {
+            Log.e(TAG, "query failed, falling back to full update", e);
+            update(ctx, cSettings);
+            return;
+        }
+
+        int numDesired = desired.size();
+        int numExisting = existingIds.size();
+        var isExistingRowUsed = new boolean[numExisting];
+
+        var inserts = new ArrayList<ContentProviderOperation>();
+        for (int d = 0; d < numDesired; ++d) {
+            ContentValues cv = desired.get(d);
+            boolean isUnchanged = false;
+            for (int e = 0; e < numExisting; ++e) {
+                if (!isExistingRowUsed[e] && rowEquals(cv, projection, existingValues.get(e))) {
+                    isExistingRowUsed[e] = true;
+                    isUnchanged = true;
+                    break;
+                }
+            }
+            if (!isUnchanged) {
+                inserts.add(ContentProviderOperation.newInsert(Telephony.Carriers.CONTENT_URI)
+                        .withValues(cv).build());
+            }
+        }
+
+        // deletions are applied before insertions
+        var ops = new ArrayList<ContentProviderOperation>();
+        // see deleteUneditedApnsForCarrierId() regarding the use of "delete" path
+        Uri deleteUri = Uri.withAppendedPath(Telephony.Carriers.CONTENT_URI, "delete");
+        for (int e = 0; e < numExisting; ++e) {
+            if (isExistingRowUsed[e]) {
+                continue;
+            }
+            ops.add(ContentProviderOperation.newDelete(deleteUri)
+                    .withSelection(Telephony.Carriers._ID + "=?" + UNEDITED_CLAUSE,
+                            new String[] { Long.toString(existingIds.get(e)) })
+                    .build());
+        }
+        int numDeleted = ops.size();
+        int numInserted = inserts.size();
+        ops.addAll(inserts);
+
+        Log.d(TAG, "existing " + numExisting + "; desired " + numDesired
+                + "; inserted " + numInserted + "; deleted " + numDeleted);
+
+        if (ops.isEmpty()) {
+            return;
+        }
 
+        try {
+            cr.applyBatch(Telephony.Carriers.CONTENT_URI.getAuthority(), ops);
+            LoaderMetrics.apnRowsInserted.add(numInserted);
+            LoaderMetrics.apnRowsDeleted.add(numDeleted);
+        } catch (OperationApplicationException | RemoteException | SQLiteException
+                 | IllegalArgumentException e) {
+            // full update deletes all unedited rows, partially applied batch doesn't matter
+            Log.e(TAG, "applyBatch failed, falling back to full update", e);
+            update(ctx, cSettings);
+        }
+    }
+
+    // Columns that are compared to find unchanged rows: all columns that are set by
+    // apnItemToContentValues(), and the columns that it leaves unset, at least for some rows. Value
+    // of an unset column is the default value of that column in TelephonyProvider, which is what a
+    // row that is inserted by update() gets.
+    //
+    // Columns that TelephonyProvider derives from other columns on insert aren't compared, their
+    // stored values are determined by the compared columns: NETWORK_TYPE_BITMASK is converted from
+    // BEARER_BITMASK, and MTU_V4 is copied from MTU
+    private static final String[] COMPARED_COLUMNS = {
+            Telephony.Carriers.APN,
+            Telephony.Carriers.NAME,
+            Telephony.Carriers.MCC,
+            Telephony.Carriers.MNC,
+            Telephony.Carriers.NUMERIC,
+            Telephony.Carriers.MVNO_TYPE,
+            Telephony.Carriers.MVNO_MATCH_DATA,
+            Telephony.Carriers.EDITED_STATUS,
+            Telephony.Carriers.TYPE,
+            Telephony.Carriers.PROTOCOL,
+            Telephony.Carriers.ROAMING_PROTOCOL,
+            Telephony.Carriers.SERVER,
+            Telephony.Carriers.PROXY,
+            Telephony.Carriers.PORT,
+            Telephony.Carriers.USER,
+            Telephony.Carriers.PASSWORD,
+            Telephony.Carriers.AUTH_TYPE,
+            Telephony.Carriers.MMSC,
+            Telephony.Carriers.MMSPROXY,
+            Telephony.Carriers.MMSPORT,
+            Telephony.Carriers.BEARER_BITMASK,
+            Telephony.Carriers.MTU,
+            Telephony.Carriers.MAX_CONNECTIONS,
+            Telephony.Carriers.WAIT_TIME_RETRY,
+            Telephony.Carriers.TIME_LIMIT_FOR_MAX_CONNECTIONS,
+            Telephony.Carriers.MODEM_PERSIST,
+            Telephony.Carriers.USER_VISIBLE,
+            Telephony.Carriers.USER_EDITABLE,
+            Telephony.Carriers.APN_SET_ID,
+            Telephony.Carriers.SKIP_464XLAT,
+            Telephony.Carriers.LINGERING_NETWORK_TYPE_BITMASK,
+            Telephony.Carriers.ALWAYS_ON,
+            Telephony.Carriers.MTU_V6,
+            // not always set
+            Telephony.Carriers.PROFILE_ID,
+            // never set
+            Telephony.Carriers.CARRIER_ENABLED,
+    };
+
+    // TelephonyProvider defaults of COMPARED_COLUMNS that aren't always set by apnItemToContentValues()
+    private static final ContentValues UNSET_COLUMN_DEFAULTS = new ContentValues();
+
+    static {
+        UNSET_COLUMN_DEFAULTS.put(Telephony.Carriers.PROFILE_ID, 0);
+        UNSET_COLUMN_DEFAULTS.put(Telephony.Carriers.CARRIER_ENABLED, 1);
+    }
+
+    @Nullable
+    private static Object readColumn(Cursor c, int idx) {
+        switch (c.getType(idx)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return c.getLong(idx);
+            default:
+                return c.getString(idx);
+        }
+    }
+
+    // projection[0] is _ID, it's skipped
+    private static boolean rowEquals(ContentValues cv, String[] projection, Object[] row) {
+        for (int i = 1; i < projection.length; ++i) {
+            String column = projection[i];
+            Object expected = cv.containsKey(column) ? cv.get(column) : UNSET_COLUMN_DEFAULTS.get(column);
+            if (!valueEquals(expected, row[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean valueEquals(@Nullable Object expected, @Nullable Object stored) {
+        if (expected == null || stored == null) {
+            return expected == stored;
+        }
+        // booleans are stored as integers
+        if (expected instanceof Boolean) {
+            expected = ((Boolean) expected) ? 1L : 0L;
+        }
+        if (expected instanceof Number && stored instanceof Long) {
+            return ((Number) expected).longValue() == (Long) stored;
+        }
+        return expected.toString().equals(stored.toString());
+    }
+
+    // Columns that are the same for all APNs of a given CarrierId
+    private static ContentValues carrierColumns(CarrierId protoCarrierId) {
+        var cv = new ContentValues();
         String mccMnc = protoCarrierId.getMccMnc();
         String mcc = mccMnc.substring(0, 3);
         String mnc = mccMnc.substring(3);
@@ -62,6 +263,14 @@ public class Apns {
         // Google's CarrierSettings app still uses this API as of mid-2023, despite it being deprecated in 2019
         cv.put(Telephony.Carriers.MVNO_TYPE, mvnoType);
         cv.put(Telephony.Carriers.MVNO_MATCH_DATA, mvnoMatchData);
+        return cv;
+    }
+
+    private static ContentValues apnItemToContentValues(ApnItem i, ContentValues carrierColumns) {
+        var cv = new ContentValues();
+        cv.put(Telephony.Carriers.APN, i.getValue());
+        cv.put(Telephony.Carriers.NAME, i.getName());
+        cv.putAll(carrierColumns);
 
         cv.put(Telephony.Carriers.EDITED_STATUS, Telephony.Carriers.UNEDITED);
 
@@ -121,27 +330,37 @@ public class Apns {
         return cv;
     }
 
-    private static void deleteUneditedApnsForCarrierId(Context ctx, CarrierId protoCarrierId) {
-        final String TAG = "deleteUneditedApns";
+    private static final String UNEDITED_CLAUSE = " AND " +
+            Telephony.Carriers.EDITED_STATUS + "=" + Telephony.Carriers.UNEDITED;
+
+    // Selects unedited APNs of the given CarrierId
+    static class UneditedApnsSelection {
+        final String where;
+        final String[] selectionArgs;
+
+        UneditedApnsSelection(CarrierId protoCarrierId) {
+            MvnoSpec mvnoSpec = MvnoSpec.get(protoCarrierId);
+            if (mvnoSpec == null || TextUtils.isEmpty(mvnoSpec.matchData)) {
+                where = Telephony.Carriers.NUMERIC + "=? AND "
+                        + Telephony.Carriers.MVNO_TYPE + "=''"
+                        + UNEDITED_CLAUSE;
+                selectionArgs = new String[] { protoCarrierId.getMccMnc() };
+            } else {
+                where = Telephony.Carriers.NUMERIC + "=? AND "
+                        + Telephony.Carriers.MVNO_TYPE + "=? AND "
+                        + Telephony.Carriers.MVNO_MATCH_DATA + "=? COLLATE NOCASE"
+                        + UNEDITED_CLAUSE;
+                selectionArgs = new String[] { protoCarrierId.getMccMnc(), mvnoSpec.typeString(), mvnoSpec.matchData };
+            }
+        }
+    }
 
-        final String uneditedClause = " AND " +
-                Telephony.Carriers.EDITED_STATUS + "=" + Telephony.Carriers.UNEDITED;
+    private static int deleteUneditedApnsForCarrierId(Context ctx, CarrierId protoCarrierId) {
+        final String TAG = "deleteUneditedApns";
 
-        MvnoSpec mvnoSpec = MvnoSpec.get(protoCarrierId);
-        String where;
-        String[] selectionArgs;
-        if (mvnoSpec == null || TextUtils.isEmpty(mvnoSpec.matchData)) {
-            where = Telephony.Carriers.NUMERIC + "=? AND "
-                    + Telephony.Carriers.MVNO_TYPE + "=''"
-                    + uneditedClause;
-            selectionArgs = new String[] { protoCarrierId.getMccMnc() };
-        } else {
-            where = Telephony.Carriers.NUMERIC + "=? AND "
-                    + Telephony.Carriers.MVNO_TYPE + "=? AND "
-                    + Telephony.Carriers.MVNO_MATCH_DATA + "=? COLLATE NOCASE"
-                    + uneditedClause;
-            selectionArgs = new String[] { protoCarrierId.getMccMnc(), mvnoSpec.typeString(), mvnoSpec.matchData };
-        }
+        var sel = new UneditedApnsSelection(protoCarrierId);
+        String where = sel.where;
+        String[] selectionArgs = sel.selectionArgs;
 
         Uri uri = Uri.withAppendedPath(Telephony.Carriers.CONTENT_URI, "delete");
         ContentResolver cr = ctx.getContentResolver();
@@ -149,41 +368,107 @@ public class Apns {
         Log.d(TAG, "uri: " + uri + "; where: " + where
                 + "; selArgs: " + Arrays.toString(selectionArgs));
 
-        int numDeletedRows = cr.delete(uri, where + uneditedClause, selectionArgs);
+        int numDeletedRows = cr.delete(uri, where + UNEDITED_CLAUSE, selectionArgs);
         Log.d(TAG, "numDeletedRows " + numDeletedRows);
+        return numDeletedRows;
     }
 
     public static List<ContentValues> getApnContentValues(CSettingsDir csd, CarrierIdentifier carrierId) {
-        CSettings cs = CSettings.get(csd, carrierId);
-        if (cs == null) {
-            return emptyList();
+        long start = System.nanoTime();
+        try {
+            CSettings cs = CSettings.get(csd, carrierId);
+            if (cs == null) {
+                return emptyList();
+            }
+            return getApnContentValues(cs);
+        } finally {
+            LoaderMetrics.getApnContentValues.recordSince(start);
         }
-        return getApnContentValues(cs);
     }
 
-    private static List<ContentValues> getApnContentValues(CSettings cs) {
-        List<ApnItem> list = cs.protoCSettings.getApns().getApnList();
+    static List<ContentValues> getApnContentValues(CSettings cs) {
+        ContentValues[] templates = getApnTemplates(cs);
 
-        var result = new ArrayList<ContentValues>(list.size());
+        var result = new ArrayList<ContentValues>(templates.length);
 
-        for (ApnItem apnItem : list) {
-            result.add(apnItemToContentValues(apnItem, cs.carrierId2.protoCarrierId));
+        for (ContentValues template : templates) {
+            result.add(new ContentValues(template));
         }
 
         return result;
     }
 
+    // APN rows depend only on the canonical name, version and proto CarrierId of CSettings, which are
+    // fixed for a given CSettings instance. Rows are built once and are then only copied
+    private static ContentValues[] getApnTemplates(CSettings cs) {
+        ContentValues[] res = cs.apnTemplates;
+        if (res != null) {
+            return res;
+        }
+
+        List<ApnItem> list = cs.protoCSettings.getApns().getApnList();
+        ContentValues carrierColumns = carrierColumns(cs.carrierId2.protoCarrierId);
+
+        res = new ContentValues[list.size()];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = apnItemToContentValues(list.get(i), carrierColumns);
+        }
+        // concurrent callers might build the templates more than once, which is harmless
+        cs.apnTemplates = res;
+        return res;
+    }
+
+    // Equivalent to splitting on '|' and parsing each flag with Integer.parseInt(), without regex
+    // matching and substring allocation for the common case of short decimal flags
     private static int parseBitmaskString(String s) {
         int res = 0;
-        for (String flagStr : s.split("\\|", -1)) {
-            int flag = Integer.parseInt(flagStr);
+        int len = s.length();
+        int start = 0;
+        while (true) {
+            int end = s.indexOf('|', start);
+            if (end < 0) {
+                end = len;
+            }
+            int flag = parseFlag(s, start, end);
             if (flag > 0) {
                 res |= 1 << (flag - 1);
             }
+            if (end == len) {
+                return res;
+            }
+            start = end + 1;
+        }
+    }
+
+    private static int parseFlag(String s, int start, int end) {
+        // longer flags might overflow
+        if (start == end || end - start > 9) {
+            return Integer.parseInt(s.substring(start, end));
+        }
+        int res = 0;
+        for (int i = start; i < end; ++i) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                // sign or invalid flag
+                return Integer.parseInt(s.substring(start, end));
+            }
+            res = res * 10 + digit;
         }
         return res;
     }
 
+    // APN type string of each ApnType, indexed by ordinal
+    private static final String[] APN_TYPE_STRINGS;
+
+    static {
+        ApnItem.ApnType[] types = ApnItem.ApnType.values();
+        APN_TYPE_STRINGS = new String[types.length];
+        for (ApnItem.ApnType t : types) {
+            APN_TYPE_STRINGS[t.ordinal()] = t == ApnItem.ApnType.ALL ?
+                    "*" : t.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
     private static String typesListToString(List<ApnItem.ApnType> list) {
         var b = new StringBuilder(list.size() * 5);
         boolean skipComma = true;
@@ -195,11 +480,7 @@ public class Apns {
                 b.append(',');
             }
 
-            if (apnType == ApnItem.ApnType.ALL) {
-                b.append('*');
-            } else {
-                b.append(apnType.name().toLowerCase());
-            }
+            b.append(APN_TYPE_STRINGS[apnType.ordinal()]);
         }
         return b.toString();
     }
@@ -0,0 +1,31 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+import android.os.PersistableBundle;
+import android.os.RemoteException;
+import android.service.carrier.CarrierIdentifier;
+
+import com.android.internal.gmscompat.gcarriersettings.ICarrierConfigsLoader;
+import com.android.internal.gmscompat.gcarriersettings.TestCarrierConfigService;
+
+import java.util.Arrays;
+
+// GcsConfigSource that is backed by TestCarrierConfigService of Google's CarrierSettings app
+public class BinderGcsConfigSource implements GcsConfigSource {
+    private final ICarrierConfigsLoader loader;
+
+    public BinderGcsConfigSource(ICarrierConfigsLoader loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public Configs getConfigs(CarrierIdentifier carrierId) throws RemoteException {
+        Bundle b = loader.getConfigs(carrierId);
+        PersistableBundle carrierConfigs = b.getParcelable(
+                TestCarrierConfigService.KEY_CARRIER_SERVICE_RESULT, PersistableBundle.class);
+        ContentValues[] apns = b.getParcelableArray(
+                TestCarrierConfigService.KEY_APN_SERVICE_RESULT, ContentValues.class);
+        return new Configs(carrierConfigs, Arrays.asList(apns));
+    }
+}
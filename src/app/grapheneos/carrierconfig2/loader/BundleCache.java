@@ -0,0 +1,76 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.annotation.Nullable;
+import android.os.PersistableBundle;
+import android.util.LruCache;
+
+import com.google.carrier.CarrierId;
+
+import java.util.Objects;
+
+// Cache of merged and filtered carrier config bundles that are returned by CarrierConfigLoader.load().
+// Cached bundles are never handed out directly, callers always receive a deep copy.
+class BundleCache {
+    static final class Key {
+        // proto CarrierId that the CarrierIdentifier was matched to, SIMs that match the same
+        // CarrierSettings share the entry. null when there are no CarrierSettings for the
+        // CarrierIdentifier, default carrier settings are used in that case
+        @Nullable
+        final CarrierId carrierId;
+        final boolean filtered;
+        final long cSettingsVersion;
+
+        Key(@Nullable CarrierId carrierId, boolean filtered, long cSettingsVersion) {
+            this.carrierId = carrierId;
+            this.filtered = filtered;
+            this.cSettingsVersion = cSettingsVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return filtered == k.filtered && cSettingsVersion == k.cSettingsVersion
+                    && Objects.equals(carrierId, k.carrierId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(carrierId, filtered, cSettingsVersion);
+        }
+    }
+
+    private static final class Entry {
+        final PersistableBundle bundle;
+        // see Filters.getPackageStateGeneration()
+        final long packageStateGeneration;
+
+        Entry(PersistableBundle bundle, long packageStateGeneration) {
+            this.bundle = bundle;
+            this.packageStateGeneration = packageStateGeneration;
+        }
+    }
+
+    private final LruCache<Key, Entry> cache = new LruCache<>(7);
+
+    // packageStateGeneration should be obtained before the bundle is computed, filtered bundles
+    // from other generations are considered to be stale
+    @Nullable
+    PersistableBundle get(Key key, long packageStateGeneration) {
+        Entry e = cache.get(key);
+        if (e == null) {
+            return null;
+        }
+        if (key.filtered && e.packageStateGeneration != packageStateGeneration) {
+            // stale entry will be replaced by put()
+            return null;
+        }
+        return e.bundle.deepCopy();
+    }
+
+    void put(Key key, long packageStateGeneration, PersistableBundle bundle) {
+        cache.put(key, new Entry(bundle, packageStateGeneration));
+    }
+}
@@ -1,11 +1,11 @@
 package app.grapheneos.carrierconfig2.loader;
 
 import android.annotation.Nullable;
+import android.content.ContentValues;
 import android.service.carrier.CarrierIdentifier;
 import android.util.Log;
 
 import com.google.carrier.CarrierSettings;
-import com.google.carrier.MultiCarrierSettings;
 
 import java.io.IOException;
 import java.util.Optional;
@@ -15,6 +15,10 @@ class CSettings {
     // carrier ID influences carrier configuration (e.g. APNs)
     final CarrierId2 carrierId2;
     final CarrierSettings protoCSettings;
+    // lazily built APN rows, see Apns.getApnTemplates(). Shared, must not be modified or handed out
+    @Nullable
+    volatile ContentValues[] apnTemplates;
+    final ConfigArrays configArrays = new ConfigArrays();
 
     CSettings(CarrierId2 carrierId2, CarrierSettings protoCSettings) {
         this.carrierId2 = carrierId2;
@@ -27,41 +31,17 @@ class CSettings {
 
         CarrierSettings protoCSettings;
         try {
-            protoCSettings = csd.getStandaloneCarrierSettings(canonicalName);
+            protoCSettings = csd.getCarrierSettings(canonicalName);
         } catch (IOException e) {
             Log.e("CSettings.get", "", e);
             return null;
         }
-        if (protoCSettings == null) {
-            protoCSettings = searchMultiCarrierSettings(csd.getMultiCarrierSettings(), canonicalName);
-        }
         if (protoCSettings == null) {
             return null;
         }
         return new CSettings(carrierId2, protoCSettings);
     }
 
-    @Nullable
-    private static CarrierSettings searchMultiCarrierSettings(MultiCarrierSettings mcs,
-                                                              String canonicalName) {
-        String TAG = "searchMCSettings";
-        for (CarrierSettings cs : mcs.getSettingList()) {
-            if (!canonicalName.equals(cs.getCanonicalName())) {
-                continue;
-            }
-
-            Log.d(TAG, "found " + canonicalName);
-
-            CarrierSettings.Builder b = cs.toBuilder();
-            // versions and timestamps of CarrierSettings inside MultiCarrierSettings are missing,
-            // use values from MultiCarrierSettings instead
-            b.setVersion(mcs.getVersion());
-            b.setLastUpdated(mcs.getLastUpdated());
-            return b.build();
-        }
-        return null;
-    }
-
     @Nullable
     static CSettings get(CSettingsDir csd, CarrierId2 carrierId2) {
         CSettings cs;
@@ -69,8 +49,8 @@ class CSettings {
         if (cached != null) {
             cs = cached.orElse(null);
         } else {
-            cs = CSettings.getInner(csd, carrierId2);
-            csd.cSettingsLookupCache.put(carrierId2.carrierId, Optional.ofNullable(cs));
+            cs = csd.cSettingsLookupCache.compute(carrierId2.carrierId,
+                    k -> CSettings.getInner(csd, carrierId2));
         }
 
         String TAG = "CSettings.get";
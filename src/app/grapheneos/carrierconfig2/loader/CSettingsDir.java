@@ -4,17 +4,23 @@ import android.annotation.Nullable;
 import android.os.Environment;
 import android.service.carrier.CarrierIdentifier;
 import android.util.Log;
-import android.util.LruCache;
 
 import com.google.carrier.CarrierList;
 import com.google.carrier.CarrierSettings;
-import com.google.carrier.MultiCarrierSettings;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Optional;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 /**
  * Representation of a CarrierSettings directory.
@@ -36,13 +42,49 @@ public class CSettingsDir {
     public static final String TAG = CSettingsDir.class.getSimpleName();
 
     private final File dir;
+    // protobuf files are memory-mapped instead of being copied onto the Java heap when true
+    private final boolean mapFiles;
 
-    final LruCache<CarrierIdentifier, Optional<CarrierId2>> carrierId2LookupCache = new LruCache<>(7);
-    final LruCache<CarrierIdentifier, Optional<CSettings>> cSettingsLookupCache = new LruCache<>(7);
+    // capacities of lookup caches, in estimated bytes of cached values. Negative lookup caches
+    // are bounded by the number of entries instead, see LookupCache
+    public static final int DEFAULT_CARRIER_ID2_CACHE_BYTES = 16 << 10;
+    public static final int DEFAULT_CSETTINGS_CACHE_BYTES = 1 << 20;
+    static final int NEGATIVE_CACHE_ENTRIES = 32;
+
+    final LookupCache<CarrierIdentifier, CarrierId2> carrierId2LookupCache;
+    final LookupCache<CarrierIdentifier, CSettings> cSettingsLookupCache;
+    final BundleCache bundleCache = new BundleCache();
+    final DefaultsBundles defaultsBundles = new DefaultsBundles();
 
     // dir is required to be fully initialized and immutable for the whole lifetime of CSettingsDir
     public CSettingsDir(File dir) {
+        this(dir, true);
+    }
+
+    // Mapping the files is safe only because dir is immutable for the lifetime of CSettingsDir
+    public CSettingsDir(File dir, boolean mapFiles) {
+        this(dir, mapFiles, DEFAULT_CARRIER_ID2_CACHE_BYTES, DEFAULT_CSETTINGS_CACHE_BYTES);
+    }
+
+    public CSettingsDir(File dir, boolean mapFiles, int carrierId2CacheBytes, int cSettingsCacheBytes) {
         this.dir = dir;
+        this.mapFiles = mapFiles;
+        carrierId2LookupCache = new LookupCache<>("carrierId2LookupCache", carrierId2CacheBytes,
+                NEGATIVE_CACHE_ENTRIES, CarrierId2::estimateSize);
+        // serialized size is used as an estimate of the size of parsed CarrierSettings
+        cSettingsLookupCache = new LookupCache<>("cSettingsLookupCache", cSettingsCacheBytes,
+                NEGATIVE_CACHE_ENTRIES, cs -> cs.protoCSettings.getSerializedSize());
+    }
+
+    // Returns a new instance for the same dir that has its own caches with the given capacities.
+    // Used by tools that sweep the whole database to avoid evicting entries of the live instance
+    public CSettingsDir withCacheCapacity(int carrierId2CacheBytes, int cSettingsCacheBytes) {
+        return new CSettingsDir(dir, mapFiles, carrierId2CacheBytes, cSettingsCacheBytes);
+    }
+
+    void dumpCaches(PrintWriter pw) {
+        carrierId2LookupCache.dump(pw);
+        cSettingsLookupCache.dump(pw);
     }
 
     @Nullable
@@ -67,27 +109,103 @@ public class CSettingsDir {
         return dir.isDirectory();
     }
 
-    private CarrierList cachedCarrierList;
+    private final LazyResource<CarrierList> carrierList = new LazyResource<>("CarrierList",
+            () -> {
+                Path path = getProtobufPath("carrier_list");
+                long start = System.nanoTime();
+                ByteBuffer contents = readFile(path);
+                int size = contents.remaining();
+                CarrierList res = CarrierList.parseFrom(contents);
+                LoaderMetrics.recordFileParse(path.getFileName().toString(), size, start);
+                return res;
+            },
+            CarrierList.getDefaultInstance());
+
+    // built from carrierList, isn't built from the fallback value while carrierList is unavailable
+    private final LazyResource<MccMncIndex> mccMncIndex = new LazyResource<>("MccMncIndex",
+            () -> MccMncIndex.build(carrierList.getOrThrow()),
+            MccMncIndex.build(CarrierList.getDefaultInstance()));
 
+    private final LazyResource<MultiCarrierSettingsIndex> multiCarrierSettingsIndex =
+            new LazyResource<>("MultiCarrierSettings", () -> {
+                Path path = getProtobufPath("others");
+                // others.pb is optional, see the class comment
+                if (!Files.exists(path)) {
+                    return MultiCarrierSettingsIndex.EMPTY;
+                }
+                long start = System.nanoTime();
+                ByteBuffer contents = readFile(path);
+                int size = contents.remaining();
+                // file contents are retained by the index and are reused by each lookup
+                var index = MultiCarrierSettingsIndex.build(contents);
+                LoaderMetrics.recordFileParse(path.getFileName().toString(), size, start);
+                Log.d(TAG, "indexed " + index.size() + " MultiCarrierSettings entries");
+                return index;
+            }, MultiCarrierSettingsIndex.EMPTY);
+
+    // Returns an empty instance if carrier_list.pb is unavailable, see LazyResource
     CarrierList getCarrierList() {
-        synchronized (this) {
-            if (cachedCarrierList != null) {
-                return cachedCarrierList;
-            }
+        return carrierList.get();
+    }
+
+    // Throws if carrier_list.pb is unavailable, see LazyResource
+    CarrierList getCarrierListOrThrow() throws IOException {
+        return carrierList.getOrThrow();
+    }
 
-            Path path = getProtobufPath("carrier_list");
+    MccMncIndex getMccMncIndex() {
+        return mccMncIndex.get();
+    }
+
+    // Returns candidates for the given MCC+MNC in CarrierList order, see MccMncIndex
+    MccMncIndex.Candidate[] getCandidates(String mccMnc) {
+        CSettingsSnapshot s = snapshot;
+        if (s != null) {
+            try {
+                return s.getCandidates(mccMnc);
+            } catch (IOException e) {
+                onSnapshotFailure(s, e);
+            }
+        }
+        return getMccMncIndex().get(mccMnc);
+    }
 
+    @Nullable
+    CarrierSettings getCarrierSettings(String canonicalName) throws IOException {
+        CSettingsSnapshot s = snapshot;
+        if (s != null) {
             try {
-                byte[] bytes = Files.readAllBytes(path);
-                return cachedCarrierList = CarrierList.parseFrom(bytes);
+                return s.getCarrierSettings(canonicalName);
             } catch (IOException e) {
-                Log.e(TAG, "unable to read CarrierList, returning empty instance", e);
-                return CarrierList.getDefaultInstance();
+                onSnapshotFailure(s, e);
             }
         }
+        return getProtobufCarrierSettings(canonicalName);
     }
 
-    private MultiCarrierSettings cachedMultiCarrierSettings;
+    @Nullable
+    CarrierSettings getProtobufCarrierSettings(String canonicalName) throws IOException {
+        return getProtobufCarrierSettings(canonicalName, getMultiCarrierSettingsIndex());
+    }
+
+    // Throws if others.pb is unavailable instead of skipping it, see LazyResource
+    @Nullable
+    CarrierSettings getProtobufCarrierSettingsOrThrow(String canonicalName) throws IOException {
+        return getProtobufCarrierSettings(canonicalName, multiCarrierSettingsIndex.getOrThrow());
+    }
+
+    @Nullable
+    private CarrierSettings getProtobufCarrierSettings(String canonicalName,
+            MultiCarrierSettingsIndex multiCarrierSettingsIndex) throws IOException {
+        CarrierSettings cs = getStandaloneCarrierSettings(canonicalName);
+        if (cs == null) {
+            cs = multiCarrierSettingsIndex.get(canonicalName);
+            if (cs != null) {
+                Log.d("searchMCSettings", "found " + canonicalName);
+            }
+        }
+        return cs;
+    }
 
     @Nullable
     CarrierSettings getStandaloneCarrierSettings(String canonicalName)
@@ -98,24 +216,135 @@ public class CSettingsDir {
             return null;
         }
 
-        return CarrierSettings.parseFrom(Files.readAllBytes(path));
+        long start = System.nanoTime();
+        ByteBuffer contents = readFile(path);
+        int size = contents.remaining();
+        CarrierSettings cs = CarrierSettings.parseFrom(contents);
+        LoaderMetrics.recordFileParse(path.getFileName().toString(), size, start);
+        return cs;
+    }
+
+    // Returns an empty index if others.pb is unavailable, see LazyResource
+    MultiCarrierSettingsIndex getMultiCarrierSettingsIndex() {
+        return multiCarrierSettingsIndex.get();
     }
 
-    MultiCarrierSettings getMultiCarrierSettings() {
+    @Nullable
+    private volatile CSettingsSnapshot snapshot;
+    private boolean snapshotLoadRequested;
+    @Nullable
+    private volatile File snapshotFile;
+
+    // Switches lookups to a precompiled snapshot of this directory (see CSettingsSnapshot) that is
+    // stored in snapshotFile. Snapshot is compiled if it's missing, stale or corrupted. Until this
+    // method completes, lookups are served from the protobuf files.
+    //
+    // buildFingerprint is a part of the content key, see computeContentKey(). Compiling a snapshot
+    // reads the whole directory, this method should be called from a background thread.
+    public void loadSnapshot(File snapshotFile, String buildFingerprint) {
         synchronized (this) {
-            if (cachedMultiCarrierSettings != null) {
-                return cachedMultiCarrierSettings;
+            if (snapshotLoadRequested) {
+                return;
             }
+            snapshotLoadRequested = true;
+        }
 
-            Path path = getProtobufPath("others");
+        byte[] contentKey;
+        try {
+            contentKey = computeContentKey(buildFingerprint);
+        } catch (IOException e) {
+            Log.e(TAG, "unable to compute content key", e);
+            return;
+        }
+
+        CSettingsSnapshot s = null;
+        if (snapshotFile.isFile()) {
+            try {
+                s = CSettingsSnapshot.open(snapshotFile, contentKey);
+                if (s == null) {
+                    Log.d(TAG, "snapshot is stale");
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "unable to open snapshot", e);
+            }
+        }
 
+        if (s == null) {
             try {
-                byte[] bytes = Files.readAllBytes(path);
-                return cachedMultiCarrierSettings = MultiCarrierSettings.parseFrom(bytes);
+                CSettingsSnapshot.compile(this, contentKey, snapshotFile);
+                s = CSettingsSnapshot.open(snapshotFile, contentKey);
             } catch (IOException e) {
-                Log.e(TAG, "unable to read MultiCarrierSettings, using empty instance", e);
-                return MultiCarrierSettings.getDefaultInstance();
+                Log.e(TAG, "unable to compile snapshot", e);
+                return;
+            }
+        }
+        this.snapshotFile = snapshotFile;
+        snapshot = s;
+        Log.d(TAG, "using snapshot " + snapshotFile);
+    }
+
+    // Switches lookups back to the protobuf files. Snapshot file is deleted to make the next
+    // loadSnapshot() call (e.g. after process restart) compile it again
+    private void onSnapshotFailure(CSettingsSnapshot s, IOException e) {
+        synchronized (this) {
+            if (snapshot != s) {
+                return;
             }
+            snapshot = null;
+        }
+        Log.e(TAG, "snapshot is corrupted, switching to protobuf files", e);
+        File f = snapshotFile;
+        if (f != null) {
+            f.delete();
+        }
+    }
+
+    // SHA-256 of buildFingerprint and of names, sizes and modification times of all protobuf files
+    // in dir. File contents aren't read: dir is on a read-only partition that changes only with OS
+    // updates, which change the build fingerprint. File metadata covers dirs that are changed in
+    // other ways, e.g. by host tools
+    byte[] computeContentKey(String buildFingerprint) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".pb"));
+        if (files == null) {
+            throw new IOException("unable to list " + dir);
+        }
+        Arrays.sort(files);
+
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] fingerprint = buildFingerprint.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer longBuf = ByteBuffer.allocate(16);
+        longBuf.putLong(fingerprint.length);
+        md.update(longBuf.array(), 0, 8);
+        md.update(fingerprint);
+        for (File f : files) {
+            byte[] name = f.getName().getBytes(StandardCharsets.UTF_8);
+            BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+            longBuf.clear();
+            longBuf.putLong(name.length);
+            md.update(longBuf.array(), 0, 8);
+            md.update(name);
+            longBuf.clear();
+            longBuf.putLong(attrs.size());
+            longBuf.putLong(attrs.lastModifiedTime().toMillis());
+            md.update(longBuf.array(), 0, 16);
+        }
+        return md.digest();
+    }
+
+    private ByteBuffer readFile(Path path) throws IOException {
+        if (!mapFiles) {
+            return ByteBuffer.wrap(Files.readAllBytes(path));
+        }
+
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            // mapping remains valid after the channel is closed
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
         }
     }
 
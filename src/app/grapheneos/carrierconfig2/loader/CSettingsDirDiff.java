@@ -0,0 +1,193 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.annotation.Nullable;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.PersistableBundle;
+import android.service.carrier.CarrierIdentifier;
+import android.telephony.CarrierConfigManager;
+
+import com.google.carrier.CarrierId;
+import com.google.carrier.CarrierMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static com.android.internal.util.Preconditions.checkArgumentInRange;
+import static java.util.Collections.emptyList;
+
+// Compares effective carrier configs and APN rows of two CarrierSettings directories, e.g. of two
+// OS builds, for each proto CarrierId that is present in either of them. Used by the
+// CarrierConfig2DbDiff host tool, see README.md
+//
+// Each proto CarrierId is resolved through a matching CarrierIdentifier, the same way a SIM would
+// be. A CarrierId that is present only in one of the directories is still compared: in the other
+// directory, it resolves to a less specific carrier or to the default carrier.
+//
+// Filtering is disabled, its results depend on the set of installed packages of a device.
+public class CSettingsDirDiff {
+    private static final ConfigDiffer DIFFER = new ConfigDiffer(
+            // contains the version of CSettings, which is reported separately
+            CarrierConfigManager.KEY_CARRIER_CONFIG_VERSION_STRING);
+
+    public static final class Result {
+        public final CarrierId protoCarrierId;
+        // null if protoCarrierId doesn't resolve to any CSettings
+        @Nullable
+        public final String oldCanonicalName;
+        @Nullable
+        public final String newCanonicalName;
+        // -1 if protoCarrierId doesn't resolve to any CSettings
+        public final long oldVersion;
+        public final long newVersion;
+        public final List<ConfigDiffer.Diff> configDiffs;
+        public final List<ConfigDiffer.Diff> apnDiffs;
+
+        Result(CarrierId protoCarrierId, @Nullable CSettings oldCs, @Nullable CSettings newCs,
+               List<ConfigDiffer.Diff> configDiffs, List<ConfigDiffer.Diff> apnDiffs) {
+            this.protoCarrierId = protoCarrierId;
+            this.oldCanonicalName = oldCs != null ? oldCs.carrierId2.canonicalName : null;
+            this.newCanonicalName = newCs != null ? newCs.carrierId2.canonicalName : null;
+            this.oldVersion = oldCs != null ? oldCs.protoCSettings.getVersion() : -1L;
+            this.newVersion = newCs != null ? newCs.protoCSettings.getVersion() : -1L;
+            this.configDiffs = configDiffs;
+            this.apnDiffs = apnDiffs;
+        }
+
+        public boolean isChanged() {
+            return !configDiffs.isEmpty() || !apnDiffs.isEmpty()
+                    || oldVersion != newVersion
+                    || !Objects.equals(oldCanonicalName, newCanonicalName);
+        }
+
+        public boolean isApnsChanged() {
+            return !apnDiffs.isEmpty();
+        }
+
+        // APNs of a SIM with this CarrierId will be rewritten after the update. The device rewrites
+        // them when the canonical name or the version of the resolved CSettings changes (see
+        // ApnVersionStore), regardless of whether the APN rows themselves have changed
+        public boolean isApnRewriteNeeded() {
+            return newCanonicalName != null && (oldVersion != newVersion
+                    || !newCanonicalName.equals(oldCanonicalName));
+        }
+
+        @Nullable
+        public String mvnoType() {
+            MvnoSpec s = MvnoSpec.get(protoCarrierId);
+            return s != null ? s.typeString() : null;
+        }
+
+        @Nullable
+        public String mvnoMatchData() {
+            MvnoSpec s = MvnoSpec.get(protoCarrierId);
+            return s != null ? s.matchData : null;
+        }
+    }
+
+    public static final class Summary {
+        public int numCarrierIds;
+        public int numChanged;
+        public int numApnRewrites;
+    }
+
+    private final Context context;
+    private final CSettingsDir oldDir;
+    private final CSettingsDir newDir;
+    private final int concurrency;
+
+    public CSettingsDirDiff(Context context, CSettingsDir oldDir, CSettingsDir newDir, int concurrency) {
+        checkArgumentInRange(concurrency, 1, 256, "concurrency");
+        this.context = context;
+        this.oldDir = oldDir;
+        this.newDir = newDir;
+        this.concurrency = concurrency;
+    }
+
+    // Passes the result of each proto CarrierId to sink in a deterministic order: CarrierList order
+    // of the new dir, followed by CarrierIds that are present only in the old dir.
+    //
+    // CarrierIds are compared in parallel. The number of results that are held in memory is bounded:
+    // at most 4 * concurrency CarrierIds are in flight, and results are passed to sink as soon as
+    // all preceding results are done.
+    public Summary run(Consumer<Result> sink) throws ExecutionException, InterruptedException {
+        var protoCarrierIds = new LinkedHashSet<CarrierId>();
+        for (CSettingsDir csd : new CSettingsDir[] { newDir, oldDir }) {
+            for (CarrierMap carrierMap : csd.getCarrierList().getEntryList()) {
+                protoCarrierIds.addAll(carrierMap.getCarrierIdList());
+            }
+        }
+
+        var summary = new Summary();
+        int maxInFlight = 4 * concurrency;
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            var inFlight = new ArrayDeque<Future<Result>>(maxInFlight);
+            for (CarrierId protoCarrierId : protoCarrierIds) {
+                if (inFlight.size() == maxInFlight) {
+                    consume(inFlight.removeFirst().get(), sink, summary);
+                }
+                inFlight.addLast(executor.submit(() -> compare(protoCarrierId)));
+            }
+            while (!inFlight.isEmpty()) {
+                consume(inFlight.removeFirst().get(), sink, summary);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return summary;
+    }
+
+    private static void consume(Result r, Consumer<Result> sink, Summary summary) {
+        ++summary.numCarrierIds;
+        if (r.isChanged()) {
+            ++summary.numChanged;
+        }
+        if (r.isApnRewriteNeeded()) {
+            ++summary.numApnRewrites;
+        }
+        sink.accept(r);
+    }
+
+    private Result compare(CarrierId protoCarrierId) {
+        // first edge case is the exact match of MVNO data, see MatchingCarrierIds.edgeCases()
+        CarrierIdentifier carrierId = MatchingCarrierIds.edgeCases(protoCarrierId).get(0);
+
+        CSettings oldCs = CSettings.get(oldDir, carrierId);
+        CSettings newCs = CSettings.get(newDir, carrierId);
+
+        var configDiffs = new ArrayList<ConfigDiffer.Diff>(0);
+        DIFFER.diff("config", loadConfigs(oldDir, carrierId), loadConfigs(newDir, carrierId),
+                configDiffs::add);
+
+        var apnDiffs = new ArrayList<ConfigDiffer.Diff>(0);
+        DIFFER.diff("apns", getApnContentValues(oldCs), getApnContentValues(newCs), apnDiffs::add);
+
+        return new Result(protoCarrierId, oldCs, newCs, configDiffs, apnDiffs);
+    }
+
+    private PersistableBundle loadConfigs(CSettingsDir csd, CarrierIdentifier carrierId) {
+        PersistableBundle b = createLoader(csd).load(carrierId);
+        // null when the dir has neither CSettings for carrierId nor the default CSettings
+        return b != null ? b : new PersistableBundle();
+    }
+
+    private static List<ContentValues> getApnContentValues(@Nullable CSettings cs) {
+        return cs != null ? Apns.getApnContentValues(cs) : emptyList();
+    }
+
+    private CarrierConfigLoader createLoader(CSettingsDir csd) {
+        var ccl = new CarrierConfigLoader(context, csd);
+        ccl.disableFiltering();
+        ccl.skipApnUpdate();
+        return ccl;
+    }
+}
@@ -0,0 +1,386 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.annotation.Nullable;
+import android.util.Log;
+
+import com.google.carrier.CarrierId;
+import com.google.carrier.CarrierList;
+import com.google.carrier.CarrierMap;
+import com.google.carrier.CarrierSettings;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Precompiled, indexed snapshot of a CSettingsDir that is served from a memory-mapped file.
+//
+// Snapshot is tied to its CSettingsDir through a content key, see CSettingsDir.computeContentKey().
+// All integers are big-endian. Layout:
+// <ul>
+// <li>header: magic, format version, content key, number of MCC+MNC entries, number of canonical
+// name entries, number of candidates, length of the data section</li>
+// <li>data: UTF-8 strings and serialized CarrierId and CarrierSettings protos. CarrierSettings
+// records are pre-flattened: records from others.pb already have the version and timestamp of
+// MultiCarrierSettings applied, there's no difference between standalone and others.pb records.</li>
+// <li>MCC+MNC table, sorted by key: key offset, key length, index of first candidate, number of
+// candidates</li>
+// <li>canonical name table, sorted by key: key offset, key length, CarrierSettings offset,
+// CarrierSettings length</li>
+// <li>candidates, in CarrierList order for each MCC+MNC: canonical name offset, canonical name
+// length, CarrierId offset, CarrierId length</li>
+// </ul>
+// Offsets in tables are relative to the start of the data section. Data section precedes the tables
+// to allow compile() to stream it to the file; the header is written last.
+//
+// All table entries are validated by open(), lookups never read outside of the data section.
+// Corrupted protos in the data section are reported by lookups as IOExceptions.
+class CSettingsSnapshot {
+    static final String TAG = CSettingsSnapshot.class.getSimpleName();
+
+    private static final int MAGIC = 0x43433253; // "CC2S"
+    private static final int FORMAT_VERSION = 2;
+    static final int CONTENT_KEY_LEN = 32;
+    private static final int HEADER_LEN = 4 + 4 + CONTENT_KEY_LEN + 4 + 4 + 4 + 4;
+    private static final int ENTRY_LEN = 16;
+
+    private final ByteBuffer buf;
+    private final int numMccMncs;
+    private final int numNames;
+    private final int numCandidates;
+    private final int dataStart;
+    private final int dataLength;
+    private final int mccMncTableStart;
+    private final int nameTableStart;
+    private final int candidatesStart;
+    // decoded candidates of MCC+MNCs that were looked up, to not parse CarrierIds and compile IMSI
+    // patterns on each lookup. Bounded by the number of MCC+MNC entries
+    private final ConcurrentHashMap<String, MccMncIndex.Candidate[]> decodedCandidates =
+            new ConcurrentHashMap<>();
+
+    private CSettingsSnapshot(ByteBuffer buf, int numMccMncs, int numNames, int numCandidates,
+                              int dataLength) {
+        this.buf = buf;
+        this.numMccMncs = numMccMncs;
+        this.numNames = numNames;
+        this.numCandidates = numCandidates;
+        this.dataLength = dataLength;
+        dataStart = HEADER_LEN;
+        mccMncTableStart = dataStart + dataLength;
+        nameTableStart = mccMncTableStart + numMccMncs * ENTRY_LEN;
+        candidatesStart = nameTableStart + numNames * ENTRY_LEN;
+    }
+
+    // Returns null if the snapshot is stale, i.e. it was compiled for a different content key.
+    // Throws if the snapshot is truncated or corrupted
+    @Nullable
+    static CSettingsSnapshot open(File file, byte[] expectedContentKey) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (fc.size() > Integer.MAX_VALUE) {
+                throw new IOException("too large snapshot");
+            }
+            buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+
+        if (buf.limit() < HEADER_LEN || buf.getInt(0) != MAGIC) {
+            throw new IOException("invalid snapshot header");
+        }
+        if (buf.getInt(4) != FORMAT_VERSION) {
+            Log.d(TAG, "unknown format version " + buf.getInt(4));
+            return null;
+        }
+        var contentKey = new byte[CONTENT_KEY_LEN];
+        ByteBuffer keyBuf = buf.duplicate();
+        keyBuf.position(8);
+        keyBuf.get(contentKey);
+        if (!Arrays.equals(contentKey, expectedContentKey)) {
+            return null;
+        }
+
+        int pos = 8 + CONTENT_KEY_LEN;
+        int numMccMncs = buf.getInt(pos);
+        int numNames = buf.getInt(pos + 4);
+        int numCandidates = buf.getInt(pos + 8);
+        int dataLength = buf.getInt(pos + 12);
+        if (numMccMncs < 0 || numNames < 0 || numCandidates < 0 || dataLength < 0) {
+            throw new IOException("invalid snapshot header");
+        }
+        long expectedLength = HEADER_LEN + (long) dataLength
+                + ((long) numMccMncs + numNames + numCandidates) * ENTRY_LEN;
+        if (expectedLength != buf.limit()) {
+            throw new IOException("snapshot length " + buf.limit() + " doesn't match the expected"
+                    + " length " + expectedLength);
+        }
+        var s = new CSettingsSnapshot(buf, numMccMncs, numNames, numCandidates, dataLength);
+        s.validate();
+        return s;
+    }
+
+    // Checks that all table entries point into the data section, that candidate ranges are
+    // contiguous and cover all candidates, and that keys are sorted, as required by find()
+    private void validate() throws IOException {
+        int nextCandidate = 0;
+        for (int i = 0; i < numMccMncs; ++i) {
+            int entry = mccMncTableStart + i * ENTRY_LEN;
+            checkKey(entry, i);
+            int first = buf.getInt(entry + 8);
+            int count = buf.getInt(entry + 12);
+            if (first != nextCandidate || count <= 0 || count > numCandidates - first) {
+                throw new IOException("invalid candidate range of MCC+MNC entry " + i);
+            }
+            nextCandidate = first + count;
+        }
+        if (nextCandidate != numCandidates) {
+            throw new IOException("unreferenced candidates");
+        }
+
+        for (int i = 0; i < numNames; ++i) {
+            int entry = nameTableStart + i * ENTRY_LEN;
+            checkKey(entry, i);
+            checkRange(buf.getInt(entry + 8), buf.getInt(entry + 12));
+        }
+
+        for (int i = 0; i < numCandidates; ++i) {
+            int entry = candidatesStart + i * ENTRY_LEN;
+            checkRange(buf.getInt(entry), buf.getInt(entry + 4));
+            checkRange(buf.getInt(entry + 8), buf.getInt(entry + 12));
+        }
+    }
+
+    private void checkKey(int entry, int idx) throws IOException {
+        int offset = buf.getInt(entry);
+        int length = buf.getInt(entry + 4);
+        checkRange(offset, length);
+        if (idx > 0) {
+            int prev = entry - ENTRY_LEN;
+            if (compareData(buf.getInt(prev), buf.getInt(prev + 4), offset, length) >= 0) {
+                throw new IOException("unsorted table keys");
+            }
+        }
+    }
+
+    private void checkRange(int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > dataLength - length) {
+            throw new IOException("out of bounds data reference " + offset + ", " + length);
+        }
+    }
+
+    private int compareData(int offsetA, int lengthA, int offsetB, int lengthB) {
+        int n = Math.min(lengthA, lengthB);
+        for (int i = 0; i < n; ++i) {
+            int cmp = Integer.compare(buf.get(dataStart + offsetA + i) & 0xff,
+                    buf.get(dataStart + offsetB + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(lengthA, lengthB);
+    }
+
+    MccMncIndex.Candidate[] getCandidates(String mccMnc) throws IOException {
+        MccMncIndex.Candidate[] res = decodedCandidates.get(mccMnc);
+        if (res != null) {
+            return res;
+        }
+        int entry = find(mccMncTableStart, numMccMncs, mccMnc);
+        if (entry < 0) {
+            return MccMncIndex.NO_CANDIDATES;
+        }
+        int first = buf.getInt(entry + 8);
+        int count = buf.getInt(entry + 12);
+
+        res = new MccMncIndex.Candidate[count];
+        for (int i = 0; i < count; ++i) {
+            int c = candidatesStart + (first + i) * ENTRY_LEN;
+            String canonicalName = readString(buf.getInt(c), buf.getInt(c + 4));
+            CarrierId carrierId = CarrierId.parseFrom(slice(buf.getInt(c + 8), buf.getInt(c + 12)));
+            res[i] = new MccMncIndex.Candidate(canonicalName, carrierId);
+        }
+        // concurrent callers might decode the same candidates more than once, which is harmless
+        decodedCandidates.put(mccMnc, res);
+        return res;
+    }
+
+    @Nullable
+    CarrierSettings getCarrierSettings(String canonicalName) throws IOException {
+        int entry = find(nameTableStart, numNames, canonicalName);
+        if (entry < 0) {
+            return null;
+        }
+        long start = System.nanoTime();
+        int length = buf.getInt(entry + 12);
+        CarrierSettings cs = CarrierSettings.parseFrom(slice(buf.getInt(entry + 8), length));
+        LoaderMetrics.recordFileParse("snapshot entries", length, start);
+        return cs;
+    }
+
+    // binary search over a table that is sorted by the unsigned UTF-8 bytes of its keys
+    private int find(int tableStart, int numEntries, String key) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = numEntries - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = tableStart + mid * ENTRY_LEN;
+            int cmp = compareKey(buf.getInt(entry), buf.getInt(entry + 4), k);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private int compareKey(int offset, int length, byte[] key) {
+        int base = dataStart + offset;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; ++i) {
+            int cmp = Integer.compare(buf.get(base + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private String readString(int offset, int length) {
+        var b = new byte[length];
+        slice(offset, length).get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer b = buf.duplicate();
+        b.position(dataStart + offset);
+        b.limit(dataStart + offset + length);
+        return b.slice();
+    }
+
+    // Compiles a snapshot from protobuf files of csd and atomically replaces dest with it. Throws
+    // instead of compiling a partial snapshot if carrier_list.pb or others.pb is unavailable.
+    //
+    // Data section is streamed to a temporary file, only the tables are kept in memory
+    static void compile(CSettingsDir csd, byte[] contentKey, File dest) throws IOException {
+        if (contentKey.length != CONTENT_KEY_LEN) {
+            throw new IllegalArgumentException();
+        }
+        CarrierList carrierList = csd.getCarrierListOrThrow();
+
+        File tmp = new File(dest.getPath() + ".tmp");
+        try (var fos = new FileOutputStream(tmp)) {
+            // header is written last, when table sizes are known
+            fos.getChannel().position(HEADER_LEN);
+            var data = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+
+            // key -> (offset, length) of key in data
+            var strings = new HashMap<String, int[]>();
+            var candidatesByMccMnc = new TreeMap<byte[], List<int[]>>(Arrays::compareUnsigned);
+            var settingsByName = new TreeMap<byte[], int[]>(Arrays::compareUnsigned);
+
+            for (CarrierMap carrierMap : carrierList.getEntryList()) {
+                String canonicalName = carrierMap.getCanonicalName();
+                int[] name = putString(data, strings, canonicalName);
+
+                byte[] nameKey = canonicalName.getBytes(StandardCharsets.UTF_8);
+                if (!settingsByName.containsKey(nameKey)) {
+                    CarrierSettings cs = csd.getProtobufCarrierSettingsOrThrow(canonicalName);
+                    if (cs != null) {
+                        int off = data.size();
+                        cs.writeTo(data);
+                        settingsByName.put(nameKey, new int[] { name[0], name[1], off, data.size() - off });
+                    }
+                }
+
+                for (CarrierId carrierId : carrierMap.getCarrierIdList()) {
+                    int off = data.size();
+                    carrierId.writeTo(data);
+                    int[] candidate = { name[0], name[1], off, data.size() - off };
+
+                    String mccMnc = carrierId.getMccMnc();
+                    putString(data, strings, mccMnc);
+                    candidatesByMccMnc.computeIfAbsent(mccMnc.getBytes(StandardCharsets.UTF_8),
+                            k -> new ArrayList<>()).add(candidate);
+                }
+            }
+            int dataLength = data.size();
+
+            int numCandidates = 0;
+            for (Map.Entry<byte[], List<int[]>> e : candidatesByMccMnc.entrySet()) {
+                int[] key = strings.get(new String(e.getKey(), StandardCharsets.UTF_8));
+                data.writeInt(key[0]);
+                data.writeInt(key[1]);
+                data.writeInt(numCandidates);
+                data.writeInt(e.getValue().size());
+                numCandidates += e.getValue().size();
+            }
+
+            for (int[] e : settingsByName.values()) {
+                for (int i : e) {
+                    data.writeInt(i);
+                }
+            }
+
+            for (List<int[]> l : candidatesByMccMnc.values()) {
+                for (int[] c : l) {
+                    for (int i : c) {
+                        data.writeInt(i);
+                    }
+                }
+            }
+            data.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LEN);
+            header.putInt(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.put(contentKey);
+            header.putInt(candidatesByMccMnc.size());
+            header.putInt(settingsByName.size());
+            header.putInt(numCandidates);
+            header.putInt(dataLength);
+            header.flip();
+            FileChannel fc = fos.getChannel();
+            while (header.hasRemaining()) {
+                fc.write(header, header.position());
+            }
+            fos.getFD().sync();
+
+            Log.d(TAG, "compiled snapshot: " + candidatesByMccMnc.size() + " MCC+MNCs, "
+                    + settingsByName.size() + " CarrierSettings, " + fc.size() + " bytes");
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static int[] putString(DataOutputStream data, Map<String, int[]> strings, String s)
+            throws IOException {
+        int[] res = strings.get(s);
+        if (res == null) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            res = new int[] { data.size(), b.length };
+            data.write(b);
+            strings.put(s, res);
+        }
+        return res;
+    }
+}
@@ -2,7 +2,6 @@ package app.grapheneos.carrierconfig2.loader;
 
 import android.annotation.Nullable;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.PersistableBundle;
 import android.service.carrier.CarrierIdentifier;
 import android.telephony.CarrierConfigManager;
@@ -18,8 +17,6 @@ import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.List;
 
-import app.grapheneos.carrierconfig2.Prefs;
-
 public class CarrierConfigLoader {
     public static final String TAG = CarrierConfigLoader.class.getSimpleName();
 
@@ -30,6 +27,7 @@ public class CarrierConfigLoader {
     private final CSettingsDir csd;
     private boolean filteringEnabled = true;
     private boolean apnUpdateAllowed = true;
+    private boolean incrementalApnUpdate;
 
     public CarrierConfigLoader(Context context, CSettingsDir csd) {
         this.context = context;
@@ -44,8 +42,40 @@ public class CarrierConfigLoader {
         apnUpdateAllowed = false;
     }
 
+    // Change only the differing APN rows instead of replacing all unedited APNs of the carrier, see
+    // Apns.updateIncrementally(). Unlike the default full replace, doesn't match the order of APN
+    // rows that is produced by Google's CarrierSettings app
+    public void useIncrementalApnUpdate() {
+        incrementalApnUpdate = true;
+    }
+
     // carrierId is null when SIM is missing
     public PersistableBundle load(@Nullable CarrierIdentifier carrierId) {
+        long start = System.nanoTime();
+        try {
+            return loadInner(carrierId);
+        } finally {
+            LoaderMetrics.load.recordSince(start);
+            LoaderMetrics.recordFirstLoad(start);
+        }
+    }
+
+    // Warms up lookup caches of CSettingsDir for the given carrier IDs, and the CSettings and the
+    // bundle of the default carrier ID, which are used by every load(). Doesn't update APNs
+    public void prefetch(List<CarrierIdentifier> carrierIds) {
+        long start = System.nanoTime();
+        for (CarrierIdentifier carrierId : carrierIds) {
+            CSettings.get(csd, carrierId);
+        }
+        CSettings defaults = CSettings.get(csd, DEFAULT_CARRIER_ID);
+        if (defaults != null) {
+            csd.defaultsBundles.get(filteringEnabled, Filters.getPackageStateGeneration(),
+                    () -> cSettingsToBundle(defaults));
+        }
+        LoaderMetrics.prefetch.recordSince(start);
+    }
+
+    private PersistableBundle loadInner(@Nullable CarrierIdentifier carrierId) {
         CSettings cSettings = null;
         if (carrierId != null) {
             cSettings = CSettings.get(csd, carrierId);
@@ -57,19 +87,43 @@ public class CarrierConfigLoader {
                 if (isCurrentApnCSettingsVersion(cSettings)) {
                     Log.d(TAG, "CSettings version hasn't changed, skipping APN update");
                 } else {
-                    Apns.update(context, cSettings);
+                    long apnUpdateStart = System.nanoTime();
+                    if (incrementalApnUpdate) {
+                        Apns.updateIncrementally(context, cSettings);
+                    } else {
+                        Apns.update(context, cSettings);
+                    }
+                    LoaderMetrics.apnUpdate.recordSince(apnUpdateStart);
                     storeApnCSettingsVersion(cSettings);
                 }
             }
         }
 
+        // bundle depends only on CSettings (and on package state when filtering is enabled)
+        long packageStateGeneration = Filters.getPackageStateGeneration();
+        var cacheKey = new BundleCache.Key(
+                cSettings != null ? cSettings.carrierId2.protoCarrierId : null, filteringEnabled,
+                cSettings != null ? cSettings.protoCSettings.getVersion() : -1L);
+
+        PersistableBundle cached = csd.bundleCache.get(cacheKey, packageStateGeneration);
+        if (cached != null) {
+            Log.d(TAG, "using cached bundle");
+            return cached;
+        }
+
         CSettings defaults = CSettings.get(csd, DEFAULT_CARRIER_ID);
 
-        var bundle = new PersistableBundle();
+        PersistableBundle bundle;
         if (defaults != null) {
             // settings for default carrier ID are used as a base, carrier-specific settings are
             // applied on top
-            bundle.putAll(cSettingsToBundle(defaults));
+            PersistableBundle base = csd.defaultsBundles.get(filteringEnabled, packageStateGeneration,
+                    () -> cSettingsToBundle(defaults));
+            // shallow copy is enough: neither the base nor the cached result bundles are modified
+            // in place, bundles are deep copied before being handed out
+            bundle = new PersistableBundle(base);
+        } else {
+            bundle = new PersistableBundle();
         }
 
         if (cSettings != null) {
@@ -80,14 +134,39 @@ public class CarrierConfigLoader {
         } else {
             return null;
         }
-        return bundle;
+
+        csd.bundleCache.put(cacheKey, packageStateGeneration, bundle);
+        return bundle.deepCopy();
+    }
+
+    // Should be called when a package is added, removed or changed, results of filtering depend on
+    // the set of installed system packages. packageName is null when it's unknown which packages
+    // were affected
+    public static void onPackageStateChanged(@Nullable String packageName) {
+        Filters.onPackageStateChanged(packageName);
     }
 
     private PersistableBundle cSettingsToBundle(CSettings cs) {
-        return carrierConfigToBundle(cs.protoCSettings.getConfigs());
+        return carrierConfigToBundle(cs.protoCSettings.getConfigs(), cs.configArrays);
+    }
+
+    PersistableBundle carrierConfigToBundle(CarrierConfig cc) {
+        return carrierConfigToBundle(cc, null);
     }
 
-    private PersistableBundle carrierConfigToBundle(CarrierConfig cc) {
+    // arrays is the cache of converted array values of the CSettings that cc belongs to.
+    // Metrics are recorded once per top-level config, nested bundles are converted by
+    // carrierConfigToBundleInner()
+    private PersistableBundle carrierConfigToBundle(CarrierConfig cc, @Nullable ConfigArrays arrays) {
+        long start = System.nanoTime();
+        PersistableBundle bundle = carrierConfigToBundleInner(cc, arrays);
+        LoaderMetrics.carrierConfigToBundle.recordSince(start);
+        LoaderMetrics.carrierConfigToBundleEntries.add(bundle.size());
+        return bundle;
+    }
+
+    private PersistableBundle carrierConfigToBundleInner(CarrierConfig cc,
+            @Nullable ConfigArrays arrays) {
         List<CarrierConfig.Config> configs = cc.getConfigList();
         var bundle = new PersistableBundle(configs.size());
 
@@ -133,7 +212,7 @@ public class CarrierConfigLoader {
                     break;
                 }
                 case TEXT_ARRAY: {
-                    String[] orig = c.getTextArray().getItemList().toArray(new String[0]);
+                    String[] orig = ConfigArrays.get(arrays, c.getTextArray());
                     String[] v = filteringEnabled ? Filters.filterTextArray(ctx, k, orig) : orig;
                     if (v != null) {
                         bundle.putStringArray(k, v);
@@ -143,13 +222,12 @@ public class CarrierConfigLoader {
                     break;
                 }
                 case INT_ARRAY: {
-                    bundle.putIntArray(k, c.getIntArray().getItemList()
-                            .stream().mapToInt(Integer::intValue).toArray());
+                    bundle.putIntArray(k, ConfigArrays.get(arrays, c.getIntArray()));
                     break;
                 }
                 case BUNDLE: {
                     CarrierConfig innerCc = c.getBundle();
-                    bundle.putPersistableBundle(k, carrierConfigToBundle(innerCc));
+                    bundle.putPersistableBundle(k, carrierConfigToBundleInner(innerCc, arrays));
                     break;
                 }
                 case DOUBLE_VALUE: {
@@ -166,21 +244,12 @@ public class CarrierConfigLoader {
     }
 
     private boolean isCurrentApnCSettingsVersion(CSettings cs) {
-        String k = cs.carrierId2.canonicalName;
-        return Prefs.get(context, Prefs.Namespace.APN_CSETTINGS_VERSIONS)
-                .getLong(k, -1) == cs.protoCSettings.getVersion();
+        return ApnVersionStore.get(context).isCurrent(cs.carrierId2.canonicalName,
+                cs.protoCSettings.getVersion());
     }
 
     private void storeApnCSettingsVersion(CSettings cs) {
-        String k = cs.carrierId2.canonicalName;
-        SharedPreferences p = Prefs.get(context, Prefs.Namespace.APN_CSETTINGS_VERSIONS);
-        var ed = p.edit();
-        if (p.getAll().size() > 100) {
-            // remove old values
-            ed.clear();
-        }
-        ed.putLong(k, cs.protoCSettings.getVersion());
-        ed.apply();
+        ApnVersionStore.get(context).put(cs.carrierId2.canonicalName, cs.protoCSettings.getVersion());
     }
 
     private void addVersionString(CSettings cSettings, boolean isDefault, PersistableBundle dest) {
@@ -5,7 +5,6 @@ import android.service.carrier.CarrierIdentifier;
 import android.util.Log;
 
 import com.google.carrier.CarrierId;
-import com.google.carrier.CarrierMap;
 
 import java.util.Optional;
 
@@ -25,73 +24,79 @@ public class CarrierId2 {
     }
 
     @Nullable
-    private static CarrierId2 getInner(CSettingsDir csd, CarrierIdentifier carrierId) {
+    static CarrierId2 getInner(CSettingsDir csd, CarrierIdentifier carrierId) {
         final String mccMnc = carrierId.getMcc() + carrierId.getMnc();
         final String spn = nullIfEmpty(carrierId.getSpn());
         final String imsi = nullIfEmpty(carrierId.getImsi());
         final String gid1 = nullIfEmpty(carrierId.getGid1());
 
-        for (CarrierMap carrierMap : csd.getCarrierList().getEntryList()) {
-            for (CarrierId candidate : carrierMap.getCarrierIdList()) {
-                if (!mccMnc.equals(candidate.getMccMnc())) {
-                    continue;
-                }
+        for (MccMncIndex.Candidate c : csd.getCandidates(mccMnc)) {
+            CarrierId candidate = c.protoCarrierId;
 
-                boolean isMatch = false;
+            boolean isMatch = false;
 
-                switch (candidate.getMvnoDataCase()) {
-                    case MVNODATA_NOT_SET:
-                        // For any given MCC+MNC, MVNO CarrierIds (if there are any) always precede
-                        // MVNODATA_NOT_SET CarrierId in the CarrierIdList
-                        isMatch = true;
-                        break;
-                    case SPN:
-                        if (spn == null) {
-                            continue;
-                        }
-                        isMatch = spn.equalsIgnoreCase(candidate.getSpn());
-                        break;
-                    case GID1:
-                        if (gid1 == null) {
-                            continue;
-                        }
-                        String candidateGid1 = candidate.getGid1();
-                        // matches logic in Google's CarrierSettings app
-                        if (gid1.length() >= candidateGid1.length()) {
-                            isMatch = gid1.substring(0, candidateGid1.length()).equalsIgnoreCase(candidateGid1);
-                        }
-                        break;
-                    case IMSI:
-                        if (imsi == null) {
-                            continue;
-                        }
-                        String candidateImsi = candidate.getImsi();
-
-                        // matches logic in Google's CarrierSettings app
-                        String imsiRegex = candidateImsi
-                                .replaceAll("[xX]*$", "[0-9]*")
-                                .replaceAll("[xX]", "[0-9]");
-                        isMatch = imsi.matches(imsiRegex);
-                        break;
-                }
+            switch (candidate.getMvnoDataCase()) {
+                case MVNODATA_NOT_SET:
+                    // For any given MCC+MNC, MVNO CarrierIds (if there are any) always precede
+                    // MVNODATA_NOT_SET CarrierId in the CarrierIdList
+                    isMatch = true;
+                    break;
+                case SPN:
+                    if (spn == null) {
+                        continue;
+                    }
+                    isMatch = spn.equalsIgnoreCase(candidate.getSpn());
+                    break;
+                case GID1:
+                    if (gid1 == null) {
+                        continue;
+                    }
+                    String candidateGid1 = candidate.getGid1();
+                    // matches logic in Google's CarrierSettings app
+                    if (gid1.length() >= candidateGid1.length()) {
+                        isMatch = gid1.substring(0, candidateGid1.length()).equalsIgnoreCase(candidateGid1);
+                    }
+                    break;
+                case IMSI:
+                    if (imsi == null) {
+                        continue;
+                    }
+                    // matches logic in Google's CarrierSettings app, see ImsiPattern
+                    isMatch = c.imsiPattern.matches(imsi);
+                    break;
+            }
 
-                if (isMatch) {
-                    return new CarrierId2(carrierMap.getCanonicalName(), carrierId, candidate);
-                }
+            if (isMatch) {
+                return new CarrierId2(c.canonicalName, carrierId, candidate);
             }
         }
         return null;
     }
 
+    // rough estimate of retained size, for LookupCache
+    static int estimateSize(CarrierId2 cid2) {
+        return 64 + 2 * cid2.canonicalName.length() + cid2.protoCarrierId.getSerializedSize();
+    }
+
+    // Lookups depend only on MCC, MNC, SPN, IMSI and GID1. CarrierIdentifiers from the OS also
+    // contain GID2 and integer carrier IDs, which would otherwise make lookups for the same SIM miss
+    // the caches when they come from a different source (e.g. from warm-up in CarrierServiceImpl)
+    static CarrierIdentifier lookupKey(CarrierIdentifier carrierId) {
+        return new CarrierIdentifier(carrierId.getMcc(), carrierId.getMnc(),
+                nullIfEmpty(carrierId.getSpn()), nullIfEmpty(carrierId.getImsi()),
+                nullIfEmpty(carrierId.getGid1()), null);
+    }
+
     @Nullable
     public static CarrierId2 get(CSettingsDir csd, CarrierIdentifier carrierId) {
-        Optional<CarrierId2> cached = csd.carrierId2LookupCache.get(carrierId);
+        CarrierIdentifier key = lookupKey(carrierId);
+        Optional<CarrierId2> cached = csd.carrierId2LookupCache.get(key);
         CarrierId2 cid2;
         if (cached != null) {
             cid2 = cached.orElse(null);
         } else {
-            cid2 = getInner(csd, carrierId);
-            csd.carrierId2LookupCache.put(carrierId, Optional.ofNullable(cid2));
+            // carrierId of the result is the normalized key, it's used as a key by CSettings.get()
+            cid2 = csd.carrierId2LookupCache.compute(key, k -> getInner(csd, k));
         }
 
         String TAG = "CarrierId2.get";
@@ -1,228 +1,400 @@
 package app.grapheneos.carrierconfig2.loader;
 
-import android.app.ActivityThread;
+import android.annotation.Nullable;
 import android.content.ContentValues;
-import android.os.Bundle;
+import android.content.Context;
 import android.os.PersistableBundle;
 import android.os.RemoteException;
-import android.os.SystemClock;
 import android.service.carrier.CarrierIdentifier;
 import android.telephony.CarrierConfigManager;
 
-import com.android.internal.gmscompat.gcarriersettings.ICarrierConfigsLoader;
-import com.android.internal.gmscompat.gcarriersettings.TestCarrierConfigService;
 import com.google.carrier.CarrierId;
 import com.google.carrier.CarrierMap;
 
+import java.io.File;
+import java.io.IOException;
 import java.time.Duration;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Random;
-import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 import static com.android.internal.util.Preconditions.checkArgumentInRange;
 
 // For each proto CarrierId, compares our output for that CarrierId (with disabled filtering)
-// against the output of Google's CarrierSettings app
+// against the output of Google's CarrierSettings app, or of its local stand-in
 public class CmpTest {
     private static final String TAG = CmpTest.class.getSimpleName();
 
-    final ICarrierConfigsLoader loader;
-    final CSettingsDir csd = Objects.requireNonNull(CSettingsDir.getDefault());
+    final Context context;
+    final CSettingsDir csd;
+    // null when only replay() is used
+    @Nullable
+    final GcsConfigSource gcs;
     final BiConsumer<String, String> logger;
-    final Random random = new Random();
-    final AtomicInteger numProtoCarrierIds = new AtomicInteger();
+    // number of CarrierIds that are processed concurrently. Most of the time of each CarrierId is
+    // spent in a blocking binder call to GCS, which is why it's not tied to the number of cores
+    final int concurrency;
+    // see useBatches()
+    int batchSize = 1;
+    // see recordTo()
+    @Nullable
+    File dumpFile;
+    @Nullable
+    private GcsDump.Writer dumpWriter;
+    // see setSeed()
+    long seed = DEFAULT_SEED;
+    // see useEdgeCases()
+    boolean edgeCases;
+    // number of compared CarrierIdentifiers
+    final AtomicInteger numCarrierIds = new AtomicInteger();
     final AtomicInteger differenceCount = new AtomicInteger();
 
-    public CmpTest(ICarrierConfigsLoader loader, BiConsumer<String, String> logger) {
-        this.loader = loader;
+    enum Phase {
+        // in batched mode, this is the time spent waiting for a prefetched result
+        GCS_GET_CONFIGS,
+        LOAD,
+        GET_APN_CONTENT_VALUES,
+        COMPARE,
+    }
+
+    // sum of time spent in each phase across all workers
+    final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+
+    static final ConfigDiffer DIFFER = new ConfigDiffer(
+            // this key is used internally by GCS, it doesn't affect the OS configuration
+            "_gcs_carrier_version_",
+            // this string is intentionally formatted differently, it's used only in UI and doesn't
+            // affect the actual carrier configuration
+            CarrierConfigManager.KEY_CARRIER_CONFIG_VERSION_STRING);
+
+    public static final int DEFAULT_CONCURRENCY = 8;
+    // fixed to make runs of different builds comparable
+    public static final long DEFAULT_SEED = 0L;
+
+    // CmpTest visits each CarrierId only a few times in a row, large caches would be useless
+    static final int CARRIER_ID2_CACHE_BYTES = 4 << 10;
+    static final int CSETTINGS_CACHE_BYTES = 256 << 10;
+
+    public CmpTest(Context context, @Nullable GcsConfigSource gcs, BiConsumer<String, String> logger) {
+        // separate CSettingsDir instance doesn't evict cache entries of the live service
+        this(context, Objects.requireNonNull(CSettingsDir.getDefault())
+                        .withCacheCapacity(CARRIER_ID2_CACHE_BYTES, CSETTINGS_CACHE_BYTES),
+                gcs, logger, DEFAULT_CONCURRENCY);
+    }
+
+    public CmpTest(Context context, CSettingsDir csd, @Nullable GcsConfigSource gcs,
+                   BiConsumer<String, String> logger, int concurrency) {
+        checkArgumentInRange(concurrency, 1, 256, "concurrency");
+        this.context = context;
+        this.csd = csd;
+        this.gcs = gcs;
         this.logger = logger;
+        this.concurrency = concurrency;
     }
 
-    void log(String tag, String msg) {
-        logger.accept(tag, msg);
+    // Each worker takes batchSize CarrierIds at a time and requests GCS configs for the whole batch
+    // (as well as for its next batch) upfront, via PipelinedGcsConfigSource. This overlaps retrieval
+    // and unparceling of GCS configs with the comparison, instead of making each worker wait for a
+    // full binder round trip per CarrierId.
+    public void useBatches(int batchSize) {
+        checkArgumentInRange(batchSize, 1, 1024, "batchSize");
+        this.batchSize = batchSize;
     }
 
-    public void run() throws ExecutionException, InterruptedException {
-        var clock = SystemClock.uptimeClock();
-        var start = clock.instant();
+    // Seed of the random IMSI and GID1 digits of generated CarrierIdentifiers, see MatchingCarrierIds
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
 
-        ForkJoinPool fjp = ForkJoinPool.commonPool();
+    // Makes run() compare all edge case CarrierIdentifiers of each proto CarrierId instead of a
+    // single random one, see MatchingCarrierIds.edgeCases()
+    public void useEdgeCases() {
+        edgeCases = true;
+    }
 
-        List<Future> futures = csd.getCarrierList().getEntryList()
-                .stream()
-                .map(carrierMap -> fjp.submit(() -> processCarrierMap(loader, carrierMap)))
-                .collect(Collectors.toList());
+    // Makes run() record GCS configs of each CarrierId to the dump file, see GcsDump and replay()
+    public void recordTo(File dumpFile) {
+        this.dumpFile = dumpFile;
+    }
 
-        for (var f : futures) {
-            f.get();
-        }
+    public int getDifferenceCount() {
+        return differenceCount.get();
+    }
 
-        log(TAG, "completed, checked " + numProtoCarrierIds + " protoCarrierIds in "
-                + Duration.between(start, clock.instant()));
-        log(TAG, "number of differences: " + differenceCount.get());
+    void log(String tag, String msg) {
+        logger.accept(tag, msg);
     }
 
-    boolean processCarrierMap(ICarrierConfigsLoader gcsConfigLoader, CarrierMap carrierMap)
-            throws RemoteException {
-        String canonicalName = carrierMap.getCanonicalName();
+    static class WorkItem {
+        final String canonicalName;
+        final CarrierId protoCarrierId;
+        // index in CarrierList order, determines the random stream of this item
+        final int index;
 
-        var ccl = new CarrierConfigLoader(ActivityThread.currentApplication(), csd);
-        ccl.disableFiltering();
-        ccl.skipApnUpdate();
+        WorkItem(String canonicalName, CarrierId protoCarrierId, int index) {
+            this.canonicalName = canonicalName;
+            this.protoCarrierId = protoCarrierId;
+            this.index = index;
+        }
+    }
 
-        for (CarrierId protoCarrierId : carrierMap.getCarrierIdList()) {
-            CarrierIdentifier carrierId = createMatchingAndroidCarrierId(protoCarrierId, random);
+    // Android CarrierIdentifier that was generated for a WorkItem
+    static class Request {
+        final WorkItem item;
+        // seed of the random stream of carrierId, it's recorded in GCS dumps
+        final long seed;
+        final CarrierIdentifier carrierId;
+
+        Request(WorkItem item, long seed, CarrierIdentifier carrierId) {
+            this.item = item;
+            this.seed = seed;
+            this.carrierId = carrierId;
+        }
+    }
 
-            Bundle gcsConfigs = gcsConfigLoader.getConfigs(carrierId);
+    static class Batch {
+        final List<Request> requests;
+        final List<Future<GcsConfigSource.Configs>> gcsConfigs;
 
-            PersistableBundle gcsCarrierConfigs = gcsConfigs.getParcelable(
-                    TestCarrierConfigService.KEY_CARRIER_SERVICE_RESULT, PersistableBundle.class);
-            // this key is used internally by GCS, it doesn't affect the OS configuration
-            gcsCarrierConfigs.remove("_gcs_carrier_version_");
+        Batch(List<Request> requests, List<Future<GcsConfigSource.Configs>> gcsConfigs) {
+            this.requests = requests;
+            this.gcsConfigs = gcsConfigs;
+        }
+    }
 
-            PersistableBundle ourCarrierServiceResult = ccl.load(carrierId);
-            compareCarrierConfigs(canonicalName, gcsCarrierConfigs, ourCarrierServiceResult);
+    interface Worker {
+        void run(CarrierConfigLoader ccl) throws Exception;
+    }
 
-            List<ContentValues> gcsApns = Arrays.asList(gcsConfigs.getParcelableArray(
-                    TestCarrierConfigService.KEY_APN_SERVICE_RESULT, ContentValues.class));
-            List<ContentValues> ourApns = Apns.getApnContentValues(csd, carrierId);
-            compareApns(canonicalName, gcsApns, ourApns);
+    public void run() throws ExecutionException, InterruptedException, IOException {
+        long start = System.nanoTime();
 
-            int num = numProtoCarrierIds.incrementAndGet();
-            if ((num % 200) == 0) {
-                log(TAG, "processed " + num + " protoCarrierIds");
+        var items = new ArrayList<WorkItem>();
+        for (CarrierMap carrierMap : csd.getCarrierList().getEntryList()) {
+            for (CarrierId protoCarrierId : carrierMap.getCarrierIdList()) {
+                items.add(new WorkItem(carrierMap.getCanonicalName(), protoCarrierId, items.size()));
             }
         }
-        return true;
-    }
-
-    static CarrierIdentifier createMatchingAndroidCarrierId(CarrierId protoCarrierId, Random rnd) {
-        String mccMnc = protoCarrierId.getMccMnc();
-        checkArgumentInRange(mccMnc.length(), 5, 6, "mccMncLen");
-        String mcc = mccMnc.substring(0, 3);
-        String mnc = mccMnc.substring(3);
-        String spn = null;
-        String imsi = null;
-        String gid1 = null;
-
-        switch (protoCarrierId.getMvnoDataCase()) {
-            case SPN:
-                spn = protoCarrierId.getSpn().toLowerCase();
-                break;
-            case IMSI: {
-                String pattern = protoCarrierId.getImsi();
-
-                imsi = pattern.replace('x', randomDigit(rnd))
-                        .replace('X', randomDigit(rnd));
-
-                var sb = new StringBuilder();
-                sb.append(imsi);
-                for (int i = 0; i < 2; ++i) {
-                    if (rnd.nextBoolean()) {
-                        sb.append(randomDigit(rnd));
+
+        // Workers take CarrierIds from a shared cursor, which keeps all of them busy until the end
+        // regardless of how CarrierIds are distributed among CarrierMaps
+        var cursor = new AtomicInteger();
+        var generator = new MatchingCarrierIds(seed);
+        log(TAG, "seed: " + seed + (edgeCases ? ", edge cases" : ""));
+
+        // number of in-flight GCS requests stays bounded by concurrency in both modes
+        PipelinedGcsConfigSource pipeline = batchSize > 1
+                ? new PipelinedGcsConfigSource(gcs, concurrency) : null;
+        dumpWriter = dumpFile != null ? new GcsDump.Writer(dumpFile) : null;
+        try {
+            runWorkers(ccl -> {
+                if (pipeline != null) {
+                    processBatches(pipeline, generator, ccl, items, cursor);
+                    return;
+                }
+                for (;;) {
+                    int idx = cursor.getAndIncrement();
+                    if (idx >= items.size() || Thread.currentThread().isInterrupted()) {
+                        return;
                     }
+                    processCarrierId(generator, ccl, items.get(idx));
                 }
-                imsi = sb.toString();
-                break;
+            });
+        } finally {
+            if (pipeline != null) {
+                pipeline.close();
             }
-            case GID1:
-                var sb = new StringBuilder();
-                sb.append(protoCarrierId.getGid1().toLowerCase());
-                for (int i = 0; i < 2; ++i) {
-                    if (rnd.nextBoolean()) {
-                        sb.append(randomDigit(rnd));
+            if (dumpWriter != null) {
+                dumpWriter.close();
+                dumpWriter = null;
+            }
+        }
+
+        logResults("batch size " + batchSize, start);
+    }
+
+    // Compares our output against a dump that was recorded by run() after recordTo(), GCS isn't
+    // used. The dump is streamed: the number of records that are held in memory at the same time
+    // is bounded by concurrency.
+    public void replay(File dump) throws ExecutionException, InterruptedException, IOException {
+        long start = System.nanoTime();
+
+        try (var reader = new GcsDump.Reader(dump)) {
+            runWorkers(ccl -> {
+                for (;;) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    long t = System.nanoTime();
+                    GcsDump.Item item = reader.next();
+                    if (item == null) {
+                        return;
                     }
+                    // in replay mode, this phase is the time spent reading the dump
+                    t = endPhase(Phase.GCS_GET_CONFIGS, t);
+                    compare(ccl, item.canonicalName, item.carrierId, item.configs, t);
                 }
-                gid1 = sb.toString();
-                break;
+            });
         }
-        return new CarrierIdentifier(mcc, mnc, spn, imsi, gid1, null);
+
+        logResults("replay of " + dump, start);
     }
 
-    void compareCarrierConfigs(String logTag, PersistableBundle a, PersistableBundle b) {
-        logTag += ": compareCarrierConfigs";
+    private void runWorkers(Worker worker) throws ExecutionException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            var futures = new ArrayList<Future<Void>>(concurrency);
+            for (int i = 0; i < concurrency; ++i) {
+                futures.add(executor.submit(() -> {
+                    worker.run(createCarrierConfigLoader());
+                    return null;
+                }));
+            }
 
-        Set<String> ksa = a.keySet();
-        Set<String> ksb = b.keySet();
+            for (var f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-        compareKeysets(logTag, ksa, ksb);
+    private void logResults(String mode, long start) {
+        log(TAG, "completed, checked " + numCarrierIds + " CarrierIds in "
+                + Duration.ofNanos(System.nanoTime() - start) + " with concurrency " + concurrency
+                + ", " + mode);
+        logPhaseTimes();
+        log(TAG, "number of differences: " + differenceCount.get());
+    }
 
-        var fullKs = new HashSet<>(ksa);
-        fullKs.addAll(ksb);
-        // this string is intentionally formatted differently, it's used only in UI and doesn't
-        // affect the actual carrier configuration
-        fullKs.remove(CarrierConfigManager.KEY_CARRIER_CONFIG_VERSION_STRING);
+    private CarrierConfigLoader createCarrierConfigLoader() {
+        var ccl = new CarrierConfigLoader(context, csd);
+        ccl.disableFiltering();
+        ccl.skipApnUpdate();
+        return ccl;
+    }
 
-        for (String k : fullKs) {
-            compareObjects(logTag, k, a.get(k), b.get(k));
+    private void logPhaseTimes() {
+        int num = Math.max(1, numCarrierIds.get());
+        for (Phase phase : Phase.values()) {
+            long nanos = phaseNanos.get(phase.ordinal());
+            log(TAG, "phase " + phase + ": " + Duration.ofNanos(nanos) + " in total, "
+                    + (nanos / num / 1000) + " us per CarrierId");
         }
     }
 
-    void compareApns(String logTag, List<ContentValues> a, List<ContentValues> b) {
-        logTag += ": compareApns";
+    private long endPhase(Phase phase, long phaseStart) {
+        long now = System.nanoTime();
+        phaseNanos.getAndAdd(phase.ordinal(), now - phaseStart);
+        return now;
+    }
 
-        if (a.size() != b.size()) {
-            log(logTag, "size mismatch: a " + a.size() + " b " + b.size());
-            differenceCount.getAndIncrement();
+    private void createRequests(MatchingCarrierIds generator, WorkItem item, List<Request> dest) {
+        long streamSeed = generator.streamSeed(item.index);
+        if (edgeCases) {
+            for (CarrierIdentifier carrierId : MatchingCarrierIds.edgeCases(item.protoCarrierId)) {
+                dest.add(new Request(item, streamSeed, carrierId));
+            }
+        } else {
+            CarrierIdentifier carrierId = MatchingCarrierIds.random(item.protoCarrierId,
+                    new SplittableRandom(streamSeed));
+            dest.add(new Request(item, streamSeed, carrierId));
         }
+    }
 
-        for (int i = 0, m = Math.min(a.size(), b.size()); i < m; ++i) {
-            ContentValues va = a.get(i);
-            ContentValues vb = b.get(i);
-
-            Set<String> ksa = va.keySet();
-            Set<String> ksb = vb.keySet();
-
-            compareKeysets(logTag, va.keySet(), vb.keySet());
-
-            var unified = new HashSet<>(ksa);
-            unified.addAll(ksb);
-
-            for (String k : unified) {
-                compareObjects(logTag, k, va.get(k), vb.get(k));
+    private void processBatches(PipelinedGcsConfigSource pipeline, MatchingCarrierIds generator,
+                                CarrierConfigLoader ccl, List<WorkItem> items, AtomicInteger cursor)
+            throws RemoteException, InterruptedException, IOException {
+        Batch next = nextBatch(pipeline, generator, items, cursor);
+        while (next != null) {
+            Batch batch = next;
+            // request the next batch before processing the current one to keep the pipeline full
+            next = nextBatch(pipeline, generator, items, cursor);
+
+            for (int i = 0; i < batch.requests.size(); ++i) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                long t = System.nanoTime();
+                GcsConfigSource.Configs gcsConfigs =
+                        PipelinedGcsConfigSource.await(batch.gcsConfigs.get(i));
+                t = endPhase(Phase.GCS_GET_CONFIGS, t);
+                processGcsConfigs(ccl, batch.requests.get(i), gcsConfigs, t);
             }
         }
     }
 
-    void compareKeysets(String logTag, Set<String> ksa, Set<String> ksb) {
-        var diffA = new HashSet<>(ksa);
-        diffA.removeAll(ksb);
-        if (!diffA.isEmpty()) {
-            log(logTag, "keys missing in b " + Arrays.toString(diffA.toArray()));
+    private Batch nextBatch(PipelinedGcsConfigSource pipeline, MatchingCarrierIds generator,
+                            List<WorkItem> items, AtomicInteger cursor) {
+        int first = cursor.getAndAdd(batchSize);
+        if (first >= items.size()) {
+            return null;
         }
-
-        var diffB = new HashSet<>(ksb);
-        diffB.removeAll(ksa);
-        if (!diffB.isEmpty()) {
-            log(logTag, "keys missing in a " + Arrays.toString(diffB.toArray()));
+        int end = Math.min(items.size(), first + batchSize);
+        var requests = new ArrayList<Request>(end - first);
+        for (int i = first; i < end; ++i) {
+            createRequests(generator, items.get(i), requests);
+        }
+        var carrierIds = new ArrayList<CarrierIdentifier>(requests.size());
+        for (Request r : requests) {
+            carrierIds.add(r.carrierId);
         }
+        return new Batch(requests, pipeline.getConfigsBatch(carrierIds));
     }
 
-    void compareObjects(String logTag, String k, Object a, Object b) {
-        if (Objects.deepEquals(a, b)) {
-            return;
-        }
+    void processCarrierId(MatchingCarrierIds generator, CarrierConfigLoader ccl, WorkItem item)
+            throws RemoteException, IOException {
+        var requests = new ArrayList<Request>(1);
+        createRequests(generator, item, requests);
+
+        for (Request request : requests) {
+            long t = System.nanoTime();
+            GcsConfigSource.Configs gcsConfigs = gcs.getConfigs(request.carrierId);
+            t = endPhase(Phase.GCS_GET_CONFIGS, t);
 
-        if (a instanceof PersistableBundle && b instanceof PersistableBundle) {
-            compareCarrierConfigs(logTag, (PersistableBundle) a, (PersistableBundle) b);
-            return;
+            processGcsConfigs(ccl, request, gcsConfigs, t);
         }
+    }
 
-        log(logTag, "difference found, k " + k + " a " + a + " b " + b);
-        differenceCount.getAndIncrement();
+    private void processGcsConfigs(CarrierConfigLoader ccl, Request request,
+                                   GcsConfigSource.Configs gcsConfigs, long t) throws IOException {
+        GcsDump.Writer writer = dumpWriter;
+        if (writer != null) {
+            writer.write(new GcsDump.Item(request.item.canonicalName, request.item.protoCarrierId,
+                    request.seed, request.carrierId, gcsConfigs));
+        }
+        compare(ccl, request.item.canonicalName, request.carrierId, gcsConfigs, t);
     }
 
-    private static char randomDigit(Random rnd) {
-        int i = rnd.nextInt(10);
-        return (char) ((int) '0' + i);
+    private void compare(CarrierConfigLoader ccl, String canonicalName, CarrierIdentifier carrierId,
+                         GcsConfigSource.Configs gcsConfigs, long t) {
+        PersistableBundle ourCarrierServiceResult = ccl.load(carrierId);
+        t = endPhase(Phase.LOAD, t);
+
+        List<ContentValues> ourApns = Apns.getApnContentValues(csd, carrierId);
+        t = endPhase(Phase.GET_APN_CONTENT_VALUES, t);
+
+        Consumer<ConfigDiffer.Diff> sink = d -> log(TAG, d.toString());
+        int numDiffs = DIFFER.diff(canonicalName + ": carrierConfigs", gcsConfigs.carrierConfigs,
+                ourCarrierServiceResult, sink);
+        numDiffs += DIFFER.diff(canonicalName + ": apns", gcsConfigs.apns, ourApns, sink);
+        if (numDiffs != 0) {
+            differenceCount.addAndGet(numDiffs);
+        }
+        endPhase(Phase.COMPARE, t);
+
+        int num = numCarrierIds.incrementAndGet();
+        if ((num % 200) == 0) {
+            log(TAG, "processed " + num + " CarrierIds");
+        }
     }
 }
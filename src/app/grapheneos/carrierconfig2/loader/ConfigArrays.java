@@ -0,0 +1,64 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.annotation.Nullable;
+
+import com.google.carrier.IntArray;
+import com.google.carrier.TextArray;
+
+import java.util.IdentityHashMap;
+
+// Array values of CarrierConfig, converted once per CSettings. Bundle of a CSettings is rebuilt on
+// each bundle cache miss (e.g. after package state changes when filtering is enabled), while its
+// arrays stay the same.
+//
+// Converted arrays are shared between bundles and must not be modified: bundles are deep copied
+// before being handed out, and Filters returns a new array when it removes an element.
+class ConfigArrays {
+    // keyed by immutable proto messages of a single CarrierSettings, identity is enough
+    private final IdentityHashMap<Object, Object> arrays = new IdentityHashMap<>();
+
+    static int[] get(@Nullable ConfigArrays cache, IntArray a) {
+        if (cache == null) {
+            return toIntArray(a);
+        }
+        synchronized (cache) {
+            int[] res = (int[]) cache.arrays.get(a);
+            if (res == null) {
+                res = toIntArray(a);
+                cache.arrays.put(a, res);
+            }
+            return res;
+        }
+    }
+
+    static String[] get(@Nullable ConfigArrays cache, TextArray a) {
+        if (cache == null) {
+            return toStringArray(a);
+        }
+        synchronized (cache) {
+            String[] res = (String[]) cache.arrays.get(a);
+            if (res == null) {
+                res = toStringArray(a);
+                cache.arrays.put(a, res);
+            }
+            return res;
+        }
+    }
+
+    // getItemList() is a view of the primitive IntList that boxes each element, getItem() doesn't
+    private static int[] toIntArray(IntArray a) {
+        int[] res = new int[a.getItemCount()];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = a.getItem(i);
+        }
+        return res;
+    }
+
+    private static String[] toStringArray(TextArray a) {
+        String[] res = new String[a.getItemCount()];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = a.getItem(i);
+        }
+        return res;
+    }
+}
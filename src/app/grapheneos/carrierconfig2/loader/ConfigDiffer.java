@@ -0,0 +1,257 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.annotation.Nullable;
+import android.content.ContentValues;
+import android.os.PersistableBundle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Structural comparison of carrier configs and APN rows, used by CmpTest and by host tools.
+//
+// Key set of each side is walked once, with a hash lookup into the other side, without building
+// intermediate key sets. Arrays are compared by their element type without boxing, nested bundles are
+// compared recursively. Paths of differences are built only when a difference is found, and
+// differences are reported in path order to make the output deterministic.
+public final class ConfigDiffer {
+
+    public enum Kind {
+        // key (or list element) is present only in the actual value
+        MISSING_IN_EXPECTED,
+        // key (or list element) is present only in the expected value
+        MISSING_IN_ACTUAL,
+        // values have different types, e.g. int and long
+        TYPE_MISMATCH,
+        VALUE_MISMATCH,
+    }
+
+    public static final class Diff {
+        // e.g. "carrierConfigs/some_bundle/some_key" or "apns[2]/apn"
+        public final String path;
+        public final Kind kind;
+        @Nullable
+        public final Object expected;
+        @Nullable
+        public final Object actual;
+
+        Diff(String path, Kind kind, @Nullable Object expected, @Nullable Object actual) {
+            this.path = path;
+            this.kind = kind;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        @Override
+        public String toString() {
+            return path + ": " + kind + "; expected " + valueToString(expected)
+                    + "; actual " + valueToString(actual);
+        }
+    }
+
+    private final Set<String> ignoredKeys;
+
+    // ignoredKeys are skipped at all levels of nesting
+    public ConfigDiffer(String... ignoredKeys) {
+        this.ignoredKeys = Set.of(ignoredKeys);
+    }
+
+    // Returns the number of differences, each of which is passed to sink. actual is null when the
+    // loader didn't produce a bundle
+    public int diff(String path, PersistableBundle expected, @Nullable PersistableBundle actual,
+                    Consumer<Diff> sink) {
+        var out = new ArrayList<Diff>(0);
+        if (actual == null) {
+            out.add(new Diff(path, Kind.MISSING_IN_ACTUAL, expected, null));
+        } else {
+            diffKeyed(path, keyed(expected), keyed(actual), out);
+        }
+        return emit(out, sink);
+    }
+
+    public int diff(String path, ContentValues expected, ContentValues actual, Consumer<Diff> sink) {
+        var out = new ArrayList<Diff>(0);
+        diffKeyed(path, keyed(expected), keyed(actual), out);
+        return emit(out, sink);
+    }
+
+    // Rows are compared by position, the order of APN rows is significant (see Apns.update())
+    public int diff(String path, List<ContentValues> expected, List<ContentValues> actual,
+                    Consumer<Diff> sink) {
+        var out = new ArrayList<Diff>(0);
+        int n = Math.max(expected.size(), actual.size());
+        for (int i = 0; i < n; ++i) {
+            String rowPath = path + '[' + i + ']';
+            if (i >= actual.size()) {
+                out.add(new Diff(rowPath, Kind.MISSING_IN_ACTUAL, expected.get(i), null));
+            } else if (i >= expected.size()) {
+                out.add(new Diff(rowPath, Kind.MISSING_IN_EXPECTED, null, actual.get(i)));
+            } else {
+                int start = out.size();
+                diffKeyed(rowPath, keyed(expected.get(i)), keyed(actual.get(i)), out);
+                // sorting the whole list by path would put row 10 before row 2
+                sortByPath(out.subList(start, out.size()));
+            }
+        }
+        out.forEach(sink);
+        return out.size();
+    }
+
+    private static int emit(List<Diff> out, Consumer<Diff> sink) {
+        sortByPath(out);
+        out.forEach(sink);
+        return out.size();
+    }
+
+    private static void sortByPath(List<Diff> list) {
+        if (list.size() > 1) {
+            list.sort(Comparator.comparing(d -> d.path));
+        }
+    }
+
+    // common view of PersistableBundle and ContentValues
+    private interface Keyed {
+        Set<String> keySet();
+
+        boolean containsKey(String key);
+
+        @Nullable
+        Object get(String key);
+    }
+
+    private static Keyed keyed(PersistableBundle b) {
+        return new Keyed() {
+            @Override
+            public Set<String> keySet() {
+                return b.keySet();
+            }
+
+            @Override
+            public boolean containsKey(String key) {
+                return b.containsKey(key);
+            }
+
+            @Override
+            public Object get(String key) {
+                return b.get(key);
+            }
+        };
+    }
+
+    private static Keyed keyed(ContentValues cv) {
+        return new Keyed() {
+            @Override
+            public Set<String> keySet() {
+                return cv.keySet();
+            }
+
+            @Override
+            public boolean containsKey(String key) {
+                return cv.containsKey(key);
+            }
+
+            @Override
+            public Object get(String key) {
+                return cv.get(key);
+            }
+        };
+    }
+
+    private void diffKeyed(String path, Keyed expected, Keyed actual, List<Diff> out) {
+        for (String k : expected.keySet()) {
+            if (ignoredKeys.contains(k)) {
+                continue;
+            }
+            if (!actual.containsKey(k)) {
+                out.add(new Diff(path + '/' + k, Kind.MISSING_IN_ACTUAL, expected.get(k), null));
+                continue;
+            }
+            diffValues(path, k, expected.get(k), actual.get(k), out);
+        }
+        for (String k : actual.keySet()) {
+            if (!ignoredKeys.contains(k) && !expected.containsKey(k)) {
+                out.add(new Diff(path + '/' + k, Kind.MISSING_IN_EXPECTED, null, actual.get(k)));
+            }
+        }
+    }
+
+    private void diffValues(String path, String key, @Nullable Object a, @Nullable Object b,
+                            List<Diff> out) {
+        if (a == b) {
+            return;
+        }
+        if (a == null || b == null) {
+            out.add(new Diff(path + '/' + key, Kind.VALUE_MISMATCH, a, b));
+            return;
+        }
+        if (a.getClass() != b.getClass()) {
+            out.add(new Diff(path + '/' + key, Kind.TYPE_MISMATCH, a, b));
+            return;
+        }
+        if (a instanceof PersistableBundle) {
+            diffKeyed(path + '/' + key, keyed((PersistableBundle) a), keyed((PersistableBundle) b), out);
+            return;
+        }
+
+        boolean isEqual;
+        if (a instanceof int[]) {
+            isEqual = Arrays.equals((int[]) a, (int[]) b);
+        } else if (a instanceof long[]) {
+            isEqual = Arrays.equals((long[]) a, (long[]) b);
+        } else if (a instanceof double[]) {
+            isEqual = Arrays.equals((double[]) a, (double[]) b);
+        } else if (a instanceof boolean[]) {
+            isEqual = Arrays.equals((boolean[]) a, (boolean[]) b);
+        } else if (a instanceof byte[]) {
+            isEqual = Arrays.equals((byte[]) a, (byte[]) b);
+        } else if (a instanceof String[]) {
+            isEqual = Arrays.equals((String[]) a, (String[]) b);
+        } else {
+            // String and boxed primitives. Double.equals() matches Arrays.equals(double[]) semantics
+            isEqual = a.equals(b);
+        }
+        if (!isEqual) {
+            out.add(new Diff(path + '/' + key, Kind.VALUE_MISMATCH, a, b));
+        }
+    }
+
+    public static String valueToString(@Nullable Object o) {
+        if (o instanceof int[]) {
+            return Arrays.toString((int[]) o);
+        } else if (o instanceof long[]) {
+            return Arrays.toString((long[]) o);
+        } else if (o instanceof double[]) {
+            return Arrays.toString((double[]) o);
+        } else if (o instanceof boolean[]) {
+            return Arrays.toString((boolean[]) o);
+        } else if (o instanceof byte[]) {
+            return Arrays.toString((byte[]) o);
+        } else if (o instanceof String[]) {
+            return Arrays.toString((String[]) o);
+        } else if (o instanceof PersistableBundle) {
+            return keyedToString(keyed((PersistableBundle) o));
+        } else if (o instanceof ContentValues) {
+            return keyedToString(keyed((ContentValues) o));
+        }
+        return String.valueOf(o);
+    }
+
+    // keys are sorted, and nested arrays are expanded, to make the output deterministic
+    private static String keyedToString(Keyed keyed) {
+        var keys = new ArrayList<>(keyed.keySet());
+        Collections.sort(keys);
+        var b = new StringBuilder("{");
+        for (int i = 0; i < keys.size(); ++i) {
+            if (i != 0) {
+                b.append(", ");
+            }
+            String k = keys.get(i);
+            b.append(k).append('=').append(valueToString(keyed.get(k)));
+        }
+        return b.append('}').toString();
+    }
+}
@@ -0,0 +1,43 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.os.PersistableBundle;
+
+import java.util.function.Supplier;
+
+// Lazily computed bundles of default carrier ("000000") settings, which are used as a base for the
+// bundles of all other carriers. Filtered and unfiltered variants are kept separately.
+//
+// Returned bundles are shared and must not be modified, use them only as a source for copying.
+class DefaultsBundles {
+    private static final class Snapshot {
+        final PersistableBundle bundle;
+        // see Filters.getPackageStateGeneration()
+        final long packageStateGeneration;
+
+        Snapshot(PersistableBundle bundle, long packageStateGeneration) {
+            this.bundle = bundle;
+            this.packageStateGeneration = packageStateGeneration;
+        }
+    }
+
+    private volatile Snapshot filtered;
+    private volatile Snapshot unfiltered;
+
+    PersistableBundle get(boolean isFiltered, long packageStateGeneration,
+                          Supplier<PersistableBundle> factory) {
+        if (isFiltered) {
+            Snapshot s = filtered;
+            if (s == null || s.packageStateGeneration != packageStateGeneration) {
+                // concurrent callers might compute the snapshot more than once, which is harmless
+                filtered = s = new Snapshot(factory.get(), packageStateGeneration);
+            }
+            return s.bundle;
+        }
+
+        Snapshot s = unfiltered;
+        if (s == null) {
+            unfiltered = s = new Snapshot(factory.get(), packageStateGeneration);
+        }
+        return s.bundle;
+    }
+}
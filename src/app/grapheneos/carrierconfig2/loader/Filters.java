@@ -8,102 +8,226 @@ import android.content.pm.PackageManager;
 import android.telephony.CarrierConfigManager;
 import android.util.Log;
 
-import java.util.Arrays;
-import java.util.function.Predicate;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
 
 class Filters {
     static final String TAG = Filters.class.getSimpleName();
 
+    // Results of filtering depend on the set of installed system packages. This counter is incremented
+    // each time package state changes, results that were obtained in a previous generation are stale.
+    private static final AtomicLong packageStateGeneration = new AtomicLong();
+
+    static long getPackageStateGeneration() {
+        return packageStateGeneration.get();
+    }
+
+    // packageName is null when the change affects an unknown set of packages
+    static void onPackageStateChanged(@Nullable String packageName) {
+        packageStateGeneration.incrementAndGet();
+        if (packageName != null) {
+            systemAppCache.remove(packageName);
+        } else {
+            systemAppCache.clear();
+        }
+    }
+
+    // package name -> whether it's a system app. Avoids a PackageManager binder call per filtered
+    // value, invalidated by onPackageStateChanged()
+    private static final ConcurrentHashMap<String, Boolean> systemAppCache = new ConcurrentHashMap<>();
+    private static final AtomicLong systemAppCacheHits = new AtomicLong();
+    private static final AtomicLong systemAppCacheMisses = new AtomicLong();
+
+    static long getSystemAppCacheHits() {
+        return systemAppCacheHits.get();
+    }
+
+    static long getSystemAppCacheMisses() {
+        return systemAppCacheMisses.get();
+    }
+
+    enum ValueType {
+        BOOL,
+        TEXT,
+        TEXT_ARRAY,
+    }
+
+    enum Action {
+        DROP,
+        // value (or each array element) is a package name that is required to be a system package
+        REQUIRE_SYSTEM_PACKAGE,
+        // value is a flattened ComponentName that is required to belong to a system package
+        REQUIRE_SYSTEM_COMPONENT,
+        // each array element is "ComponentName:signals", see CarrierSignalAgent
+        REQUIRE_SYSTEM_COMPONENT_PREFIX,
+    }
+
+    static final class Rule {
+        final String key;
+        // rule applies only to values of this type
+        final ValueType valueType;
+        final Action action;
+        // number of dropped values or array elements
+        final LongAdder numFiltered = new LongAdder();
+
+        Rule(String key, ValueType valueType, Action action) {
+            this.key = key;
+            this.valueType = valueType;
+            this.action = action;
+        }
+    }
+
+    // config key -> filter rule. Built once, filtering of a config value is a single lookup
+    private static final HashMap<String, Rule> rules = new HashMap<>();
+
+    static {
+        addRules(ValueType.BOOL, Action.DROP,
+                CarrierConfigManager.KEY_ALLOW_ADDING_APNS_BOOL,
+                CarrierConfigManager.KEY_APN_EXPAND_BOOL,
+                CarrierConfigManager.KEY_CI_ACTION_ON_SYS_UPDATE_BOOL,
+                CarrierConfigManager.KEY_EDITABLE_ENHANCED_4G_LTE_BOOL,
+                CarrierConfigManager.KEY_EDITABLE_WFC_MODE_BOOL,
+                CarrierConfigManager.KEY_EDITABLE_WFC_ROAMING_MODE_BOOL,
+                CarrierConfigManager.KEY_HIDE_ENABLE_2G,
+                CarrierConfigManager.KEY_HIDE_ENHANCED_4G_LTE_BOOL,
+                CarrierConfigManager.KEY_HIDE_IMS_APN_BOOL,
+                CarrierConfigManager.KEY_HIDE_PRESET_APN_DETAILS_BOOL,
+                CarrierConfigManager.KEY_SHOW_APN_SETTING_CDMA_BOOL,
+                CarrierConfigManager.KEY_VONR_SETTING_VISIBILITY_BOOL,
+                "com.google.android.dialer.display_wifi_calling_button_bool");
+
+        addRules(ValueType.TEXT, Action.DROP,
+                CarrierConfigManager.Gps.KEY_NFW_PROXY_APPS_STRING,
+                CarrierConfigManager.KEY_CI_ACTION_ON_SYS_UPDATE_EXTRA_STRING,
+                CarrierConfigManager.KEY_CI_ACTION_ON_SYS_UPDATE_EXTRA_VAL_STRING,
+                CarrierConfigManager.KEY_CI_ACTION_ON_SYS_UPDATE_INTENT_STRING);
+
+        addRules(ValueType.TEXT, Action.REQUIRE_SYSTEM_PACKAGE,
+                CarrierConfigManager.KEY_CONFIG_IMS_MMTEL_PACKAGE_OVERRIDE_STRING,
+                CarrierConfigManager.KEY_CONFIG_IMS_PACKAGE_OVERRIDE_STRING,
+                CarrierConfigManager.KEY_CONFIG_IMS_RCS_PACKAGE_OVERRIDE_STRING);
+        addRules(ValueType.TEXT, Action.REQUIRE_SYSTEM_COMPONENT,
+                CarrierConfigManager.KEY_CARRIER_PROVISIONING_APP_STRING,
+                CarrierConfigManager.KEY_CARRIER_SETTINGS_ACTIVITY_COMPONENT_NAME_STRING,
+                CarrierConfigManager.KEY_CARRIER_SETUP_APP_STRING,
+                CarrierConfigManager.KEY_SMART_FORWARDING_CONFIG_COMPONENT_NAME_STRING,
+                CarrierConfigManager.KEY_WFC_EMERGENCY_ADDRESS_CARRIER_APP_STRING);
+        addRules(ValueType.TEXT_ARRAY, Action.REQUIRE_SYSTEM_COMPONENT_PREFIX,
+                CarrierConfigManager.KEY_CARRIER_APP_WAKE_SIGNAL_CONFIG_STRING_ARRAY);
+        addRules(ValueType.TEXT_ARRAY, Action.REQUIRE_SYSTEM_PACKAGE,
+                CarrierConfigManager.KEY_ENABLE_APPS_STRING_ARRAY);
+
+        // don't block the user from modifying APNs
+        addRules(ValueType.TEXT_ARRAY, Action.DROP,
+                CarrierConfigManager.KEY_READ_ONLY_APN_FIELDS_STRING_ARRAY,
+                CarrierConfigManager.KEY_READ_ONLY_APN_TYPES_STRING_ARRAY);
+    }
+
+    private static void addRules(ValueType valueType, Action action, String... keys) {
+        for (String key : keys) {
+            if (rules.put(key, new Rule(key, valueType, action)) != null) {
+                throw new IllegalStateException("duplicate rule for " + key);
+            }
+        }
+    }
+
+    @Nullable
+    private static Rule getRule(String key, ValueType valueType) {
+        Rule r = rules.get(key);
+        return r != null && r.valueType == valueType ? r : null;
+    }
+
     @Nullable
     static Boolean filterBoolValue(Context ctx, String key, boolean orig) {
-        switch (key) {
-            case CarrierConfigManager.KEY_ALLOW_ADDING_APNS_BOOL:
-            case CarrierConfigManager.KEY_APN_EXPAND_BOOL:
-            case CarrierConfigManager.KEY_CI_ACTION_ON_SYS_UPDATE_BOOL:
-            case CarrierConfigManager.KEY_EDITABLE_ENHANCED_4G_LTE_BOOL:
-            case CarrierConfigManager.KEY_EDITABLE_WFC_MODE_BOOL:
-            case CarrierConfigManager.KEY_EDITABLE_WFC_ROAMING_MODE_BOOL:
-            case CarrierConfigManager.KEY_HIDE_ENABLE_2G:
-            case CarrierConfigManager.KEY_HIDE_ENHANCED_4G_LTE_BOOL:
-            case CarrierConfigManager.KEY_HIDE_IMS_APN_BOOL:
-            case CarrierConfigManager.KEY_HIDE_PRESET_APN_DETAILS_BOOL:
-            case CarrierConfigManager.KEY_SHOW_APN_SETTING_CDMA_BOOL:
-            case CarrierConfigManager.KEY_VONR_SETTING_VISIBILITY_BOOL:
-            case "com.google.android.dialer.display_wifi_calling_button_bool":
-                return null;
+        Rule r = getRule(key, ValueType.BOOL);
+        if (r != null && r.action == Action.DROP) {
+            r.numFiltered.increment();
+            return null;
         }
-
         return orig;
     }
 
     @Nullable
     static String filterTextValue(Context ctx, String key, String orig) {
-        switch (key) {
-            case CarrierConfigManager.Gps.KEY_NFW_PROXY_APPS_STRING:
-            case CarrierConfigManager.KEY_CI_ACTION_ON_SYS_UPDATE_EXTRA_STRING:
-            case CarrierConfigManager.KEY_CI_ACTION_ON_SYS_UPDATE_EXTRA_VAL_STRING:
-            case CarrierConfigManager.KEY_CI_ACTION_ON_SYS_UPDATE_INTENT_STRING:
-                return null;
-
-            case CarrierConfigManager.KEY_CONFIG_IMS_MMTEL_PACKAGE_OVERRIDE_STRING:
-            case CarrierConfigManager.KEY_CONFIG_IMS_PACKAGE_OVERRIDE_STRING:
-            case CarrierConfigManager.KEY_CONFIG_IMS_RCS_PACKAGE_OVERRIDE_STRING:
-                if (!isSystemApp(ctx, orig)) {
-                    return null;
-                }
+        Rule r = getRule(key, ValueType.TEXT);
+        if (r == null) {
+            return orig;
+        }
+        boolean isAllowed;
+        switch (r.action) {
+            case REQUIRE_SYSTEM_PACKAGE:
+                isAllowed = isSystemApp(ctx, orig);
                 break;
-            case CarrierConfigManager.KEY_CARRIER_PROVISIONING_APP_STRING:
-            case CarrierConfigManager.KEY_CARRIER_SETTINGS_ACTIVITY_COMPONENT_NAME_STRING:
-            case CarrierConfigManager.KEY_CARRIER_SETUP_APP_STRING:
-            case CarrierConfigManager.KEY_SMART_FORWARDING_CONFIG_COMPONENT_NAME_STRING:
-            case CarrierConfigManager.KEY_WFC_EMERGENCY_ADDRESS_CARRIER_APP_STRING: {
-                if (!isSystemComponentName(ctx, orig)) {
-                    return null;
-                }
+            case REQUIRE_SYSTEM_COMPONENT:
+                isAllowed = isSystemComponentName(ctx, orig);
                 break;
-            }
+            default:
+                isAllowed = false;
+                break;
+        }
+        if (!isAllowed) {
+            r.numFiltered.increment();
+            return null;
         }
         return orig;
     }
 
+    // copied from com.android.internal.telephony.CarrierSignalAgent
+    private static final Pattern COMPONENT_NAME_DELIMITER = Pattern.compile("\\s*:\\s*");
+
     @Nullable
     static String[] filterTextArray(Context ctx, String key, String[] orig) {
-        Predicate<String> predicate = null;
-
-        switch (key) {
-            case CarrierConfigManager.KEY_CARRIER_APP_WAKE_SIGNAL_CONFIG_STRING_ARRAY:
-                // copied from com.android.internal.telephony.CarrierSignalAgent
-                predicate = str -> {
-                    String componentNameDelimiter = "\\s*:\\s*";
-                    String[] split = str.split(componentNameDelimiter);
-                    if (split.length != 2) {
-                        Log.w(TAG, "invalid " + key + ": " + str);
-                        return false;
-                    }
-
-                    return isSystemComponentName(ctx, split[0]);
-                };
-                break;
-
-            case CarrierConfigManager.KEY_ENABLE_APPS_STRING_ARRAY:
-                predicate = str -> isSystemApp(ctx, str);
-                break;
-
-            case CarrierConfigManager.KEY_READ_ONLY_APN_FIELDS_STRING_ARRAY:
-            case CarrierConfigManager.KEY_READ_ONLY_APN_TYPES_STRING_ARRAY:
-                // don't block the user from modifying APNs
-                return null;
+        Rule r = getRule(key, ValueType.TEXT_ARRAY);
+        if (r == null) {
+            return orig;
+        }
+        if (r.action == Action.DROP) {
+            r.numFiltered.increment();
+            return null;
         }
 
-        if (predicate != null) {
-            String[] arr = Arrays.stream(orig).filter(predicate).toArray(String[]::new);
-            if (arr.length == 0) {
-                return null;
+        var res = new ArrayList<String>(orig.length);
+        for (String str : orig) {
+            boolean isAllowed;
+            if (r.action == Action.REQUIRE_SYSTEM_COMPONENT_PREFIX) {
+                String[] split = COMPONENT_NAME_DELIMITER.split(str);
+                if (split.length != 2) {
+                    Log.w(TAG, "invalid " + key + ": " + str);
+                    isAllowed = false;
+                } else {
+                    isAllowed = isSystemComponentName(ctx, split[0]);
+                }
+            } else {
+                isAllowed = isSystemApp(ctx, str);
+            }
+            if (isAllowed) {
+                res.add(str);
+            } else {
+                r.numFiltered.increment();
             }
-            return arr;
         }
 
-        return orig;
+        if (res.isEmpty()) {
+            return null;
+        }
+        return res.size() == orig.length ? orig : res.toArray(new String[0]);
+    }
+
+    // Lists filter rules, grouped by action, along with the number of values that they filtered out
+    static void dumpRules(PrintWriter pw) {
+        var sorted = new ArrayList<>(rules.values());
+        sorted.sort(Comparator.comparing((Rule r) -> r.action).thenComparing(r -> r.key));
+        pw.println("filter rules:");
+        for (Rule r : sorted) {
+            pw.println("  " + r.key + ": " + r.valueType + " " + r.action + "; filtered "
+                    + r.numFiltered.sum());
+        }
     }
 
     private static boolean isSystemComponentName(Context ctx, String name) {
@@ -116,6 +240,30 @@ class Filters {
     }
 
     private static boolean isSystemApp(Context ctx, String packageName) {
+        Boolean cached = systemAppCache.get(packageName);
+        if (cached != null) {
+            systemAppCacheHits.getAndIncrement();
+            return cached.booleanValue();
+        }
+        systemAppCacheMisses.getAndIncrement();
+
+        long generation = packageStateGeneration.get();
+        long start = System.nanoTime();
+        boolean res = isSystemAppUncached(ctx, packageName);
+        LoaderMetrics.filterBinderCalls.recordSince(start);
+        // don't cache the result if package state has changed during the lookup, it might be stale
+        if (generation == packageStateGeneration.get()) {
+            systemAppCache.put(packageName, res);
+            // onPackageStateChanged() might have invalidated the cache between the check and the
+            // put(). It increments the generation before invalidating, recheck it after the put()
+            if (generation != packageStateGeneration.get()) {
+                systemAppCache.remove(packageName);
+            }
+        }
+        return res;
+    }
+
+    private static boolean isSystemAppUncached(Context ctx, String packageName) {
         ApplicationInfo ai;
         var pm = ctx.getPackageManager();
         try {
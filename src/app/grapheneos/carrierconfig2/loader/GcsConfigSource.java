@@ -0,0 +1,29 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.content.ContentValues;
+import android.os.PersistableBundle;
+import android.os.RemoteException;
+import android.service.carrier.CarrierIdentifier;
+
+import java.util.List;
+
+// Source of reference configs that CmpTest compares our output against. The live source is Google's
+// CarrierSettings app, see BinderGcsConfigSource. Local stand-ins (e.g. recorded dumps) allow to run
+// the comparison off-device.
+public interface GcsConfigSource {
+
+    final class Configs {
+        // KEY_CARRIER_SERVICE_RESULT of TestCarrierConfigService
+        public final PersistableBundle carrierConfigs;
+        // KEY_APN_SERVICE_RESULT of TestCarrierConfigService
+        public final List<ContentValues> apns;
+
+        public Configs(PersistableBundle carrierConfigs, List<ContentValues> apns) {
+            this.carrierConfigs = carrierConfigs;
+            this.apns = apns;
+        }
+    }
+
+    // may be called concurrently
+    Configs getConfigs(CarrierIdentifier carrierId) throws RemoteException;
+}
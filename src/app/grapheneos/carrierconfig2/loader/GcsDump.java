@@ -0,0 +1,360 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.annotation.Nullable;
+import android.content.ContentValues;
+import android.os.PersistableBundle;
+import android.service.carrier.CarrierIdentifier;
+
+import com.google.carrier.CarrierId;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import app.grapheneos.carrierconfig2.gcsdump.AndroidCarrierId;
+import app.grapheneos.carrierconfig2.gcsdump.BoolArray;
+import app.grapheneos.carrierconfig2.gcsdump.DoubleArray;
+import app.grapheneos.carrierconfig2.gcsdump.Entry;
+import app.grapheneos.carrierconfig2.gcsdump.IntArray;
+import app.grapheneos.carrierconfig2.gcsdump.LongArray;
+import app.grapheneos.carrierconfig2.gcsdump.Record;
+import app.grapheneos.carrierconfig2.gcsdump.StringArray;
+import app.grapheneos.carrierconfig2.gcsdump.Value;
+
+// Recorded outputs of Google's CarrierSettings app for each proto CarrierId, see
+// gcsdump/gcs_dump.proto. Allows to run CmpTest offline, including on a host, see CmpTest.replay()
+class GcsDump {
+
+    // GCS output for a single proto CarrierId
+    static final class Item {
+        final String canonicalName;
+        final CarrierId protoCarrierId;
+        // seed that was used to generate carrierId from protoCarrierId
+        final long seed;
+        final CarrierIdentifier carrierId;
+        final GcsConfigSource.Configs configs;
+
+        Item(String canonicalName, CarrierId protoCarrierId, long seed, CarrierIdentifier carrierId,
+             GcsConfigSource.Configs configs) {
+            this.canonicalName = canonicalName;
+            this.protoCarrierId = protoCarrierId;
+            this.seed = seed;
+            this.carrierId = carrierId;
+            this.configs = configs;
+        }
+    }
+
+    static final class Writer implements Closeable {
+        private final OutputStream out;
+
+        Writer(File file) throws IOException {
+            out = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), 1 << 16),
+                    1 << 16);
+        }
+
+        // may be called concurrently. Records are written in the order in which callers acquire the
+        // lock after converting their items, which can differ from the order of calls. Replay
+        // doesn't depend on record order, see CmpTest.replay()
+        void write(Item item) throws IOException {
+            // conversion is done outside of the lock
+            Record r = toRecord(item);
+            synchronized (this) {
+                r.writeDelimitedTo(out);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // Reads records one by one, only the record that is being returned is kept in memory
+    static final class Reader implements Closeable {
+        private final InputStream in;
+
+        Reader(File file) throws IOException {
+            in = new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 1 << 16),
+                    1 << 16);
+        }
+
+        // may be called concurrently. Returns null at the end of the dump
+        @Nullable
+        Item next() throws IOException {
+            Record r;
+            synchronized (this) {
+                r = Record.parseDelimitedFrom(in);
+            }
+            return r != null ? fromRecord(r) : null;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            in.close();
+        }
+    }
+
+    static Record toRecord(Item item) {
+        var b = Record.newBuilder();
+        b.setCanonicalName(item.canonicalName);
+        b.setProtoCarrierId(item.protoCarrierId.toByteString());
+        b.setSeed(item.seed);
+        b.setAndroidCarrierId(toProto(item.carrierId));
+        b.setCarrierServiceResult(toProto(item.configs.carrierConfigs));
+        for (ContentValues cv : item.configs.apns) {
+            b.addApnServiceResult(toProto(cv));
+        }
+        return b.build();
+    }
+
+    static Item fromRecord(Record r) throws InvalidProtocolBufferException {
+        var apns = new ArrayList<ContentValues>(r.getApnServiceResultCount());
+        for (app.grapheneos.carrierconfig2.gcsdump.Bundle b : r.getApnServiceResultList()) {
+            apns.add(contentValuesFromProto(b));
+        }
+        var configs = new GcsConfigSource.Configs(
+                persistableBundleFromProto(r.getCarrierServiceResult()), apns);
+        return new Item(r.getCanonicalName(), CarrierId.parseFrom(r.getProtoCarrierId()), r.getSeed(),
+                fromProto(r.getAndroidCarrierId()), configs);
+    }
+
+    private static AndroidCarrierId toProto(CarrierIdentifier id) {
+        var b = AndroidCarrierId.newBuilder();
+        if (id.getMcc() != null) {
+            b.setMcc(id.getMcc());
+        }
+        if (id.getMnc() != null) {
+            b.setMnc(id.getMnc());
+        }
+        if (id.getSpn() != null) {
+            b.setSpn(id.getSpn());
+        }
+        if (id.getImsi() != null) {
+            b.setImsi(id.getImsi());
+        }
+        if (id.getGid1() != null) {
+            b.setGid1(id.getGid1());
+        }
+        if (id.getGid2() != null) {
+            b.setGid2(id.getGid2());
+        }
+        return b.build();
+    }
+
+    private static CarrierIdentifier fromProto(AndroidCarrierId id) {
+        return new CarrierIdentifier(
+                id.hasMcc() ? id.getMcc() : null,
+                id.hasMnc() ? id.getMnc() : null,
+                id.hasSpn() ? id.getSpn() : null,
+                id.hasImsi() ? id.getImsi() : null,
+                id.hasGid1() ? id.getGid1() : null,
+                id.hasGid2() ? id.getGid2() : null);
+    }
+
+    private static app.grapheneos.carrierconfig2.gcsdump.Bundle toProto(PersistableBundle bundle) {
+        var b = app.grapheneos.carrierconfig2.gcsdump.Bundle.newBuilder();
+        for (String k : bundle.keySet()) {
+            b.addEntry(Entry.newBuilder().setKey(k).setValue(toValue(bundle.get(k))));
+        }
+        return b.build();
+    }
+
+    private static app.grapheneos.carrierconfig2.gcsdump.Bundle toProto(ContentValues cv) {
+        var b = app.grapheneos.carrierconfig2.gcsdump.Bundle.newBuilder();
+        for (Map.Entry<String, Object> e : cv.valueSet()) {
+            b.addEntry(Entry.newBuilder().setKey(e.getKey()).setValue(toValue(e.getValue())));
+        }
+        return b.build();
+    }
+
+    private static Value toValue(@Nullable Object o) {
+        var b = Value.newBuilder();
+        if (o == null) {
+            b.setNullValue(true);
+        } else if (o instanceof Boolean) {
+            b.setBoolValue((Boolean) o);
+        } else if (o instanceof Integer) {
+            b.setIntValue((Integer) o);
+        } else if (o instanceof Long) {
+            b.setLongValue((Long) o);
+        } else if (o instanceof Double) {
+            b.setDoubleValue((Double) o);
+        } else if (o instanceof String) {
+            b.setStringValue((String) o);
+        } else if (o instanceof boolean[]) {
+            var ab = BoolArray.newBuilder();
+            for (boolean v : (boolean[]) o) {
+                ab.addValue(v);
+            }
+            b.setBoolArray(ab);
+        } else if (o instanceof int[]) {
+            var ab = IntArray.newBuilder();
+            for (int v : (int[]) o) {
+                ab.addValue(v);
+            }
+            b.setIntArray(ab);
+        } else if (o instanceof long[]) {
+            var ab = LongArray.newBuilder();
+            for (long v : (long[]) o) {
+                ab.addValue(v);
+            }
+            b.setLongArray(ab);
+        } else if (o instanceof double[]) {
+            var ab = DoubleArray.newBuilder();
+            for (double v : (double[]) o) {
+                ab.addValue(v);
+            }
+            b.setDoubleArray(ab);
+        } else if (o instanceof String[]) {
+            String[] arr = (String[]) o;
+            var ab = StringArray.newBuilder();
+            for (int i = 0; i < arr.length; ++i) {
+                if (arr[i] == null) {
+                    ab.addValue("");
+                    ab.addNullIndex(i);
+                } else {
+                    ab.addValue(arr[i]);
+                }
+            }
+            b.setStringArray(ab);
+        } else if (o instanceof PersistableBundle) {
+            b.setBundleValue(toProto((PersistableBundle) o));
+        } else {
+            throw new IllegalArgumentException("unsupported value type " + o.getClass());
+        }
+        return b.build();
+    }
+
+    private static PersistableBundle persistableBundleFromProto(
+            app.grapheneos.carrierconfig2.gcsdump.Bundle proto) {
+        var bundle = new PersistableBundle(proto.getEntryCount());
+        for (Entry e : proto.getEntryList()) {
+            String k = e.getKey();
+            Value v = e.getValue();
+            switch (v.getValueCase()) {
+                case BOOL_VALUE:
+                    bundle.putBoolean(k, v.getBoolValue());
+                    break;
+                case INT_VALUE:
+                    bundle.putInt(k, v.getIntValue());
+                    break;
+                case LONG_VALUE:
+                    bundle.putLong(k, v.getLongValue());
+                    break;
+                case DOUBLE_VALUE:
+                    bundle.putDouble(k, v.getDoubleValue());
+                    break;
+                case STRING_VALUE:
+                    bundle.putString(k, v.getStringValue());
+                    break;
+                case BOOL_ARRAY:
+                    bundle.putBooleanArray(k, toArray(v.getBoolArray()));
+                    break;
+                case INT_ARRAY:
+                    bundle.putIntArray(k, toArray(v.getIntArray()));
+                    break;
+                case LONG_ARRAY:
+                    bundle.putLongArray(k, toArray(v.getLongArray()));
+                    break;
+                case DOUBLE_ARRAY:
+                    bundle.putDoubleArray(k, toArray(v.getDoubleArray()));
+                    break;
+                case STRING_ARRAY:
+                    bundle.putStringArray(k, toArray(v.getStringArray()));
+                    break;
+                case BUNDLE_VALUE:
+                    bundle.putPersistableBundle(k, persistableBundleFromProto(v.getBundleValue()));
+                    break;
+                case NULL_VALUE:
+                    bundle.putString(k, null);
+                    break;
+                default:
+                    throw new IllegalArgumentException("missing value of " + k);
+            }
+        }
+        return bundle;
+    }
+
+    private static ContentValues contentValuesFromProto(app.grapheneos.carrierconfig2.gcsdump.Bundle proto) {
+        var cv = new ContentValues(proto.getEntryCount());
+        for (Entry e : proto.getEntryList()) {
+            String k = e.getKey();
+            Value v = e.getValue();
+            switch (v.getValueCase()) {
+                case NULL_VALUE:
+                    cv.putNull(k);
+                    break;
+                case BOOL_VALUE:
+                    cv.put(k, v.getBoolValue());
+                    break;
+                case INT_VALUE:
+                    cv.put(k, v.getIntValue());
+                    break;
+                case LONG_VALUE:
+                    cv.put(k, v.getLongValue());
+                    break;
+                case DOUBLE_VALUE:
+                    cv.put(k, v.getDoubleValue());
+                    break;
+                case STRING_VALUE:
+                    cv.put(k, v.getStringValue());
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported ContentValues value type "
+                            + v.getValueCase() + " of " + k);
+            }
+        }
+        return cv;
+    }
+
+    private static boolean[] toArray(BoolArray a) {
+        var res = new boolean[a.getValueCount()];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = a.getValue(i);
+        }
+        return res;
+    }
+
+    private static int[] toArray(IntArray a) {
+        var res = new int[a.getValueCount()];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = a.getValue(i);
+        }
+        return res;
+    }
+
+    private static long[] toArray(LongArray a) {
+        var res = new long[a.getValueCount()];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = a.getValue(i);
+        }
+        return res;
+    }
+
+    private static double[] toArray(DoubleArray a) {
+        var res = new double[a.getValueCount()];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = a.getValue(i);
+        }
+        return res;
+    }
+
+    private static String[] toArray(StringArray a) {
+        String[] res = a.getValueList().toArray(new String[0]);
+        for (int i = 0, n = a.getNullIndexCount(); i < n; ++i) {
+            res[a.getNullIndex(i)] = null;
+        }
+        return res;
+    }
+}
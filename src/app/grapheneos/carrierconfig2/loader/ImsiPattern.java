@@ -0,0 +1,69 @@
+package app.grapheneos.carrierconfig2.loader;
+
+// Precompiled IMSI pattern of a CarrierId, e.g. "310260xx1".
+//
+// Google's CarrierSettings app turns the pattern into a regex by replacing the trailing run of 'x'
+// characters with "[0-9]*" and every other 'x' with "[0-9]". Since the trailing "[0-9]*" is present
+// even when the pattern doesn't end with 'x', this is a prefix match: IMSI should be at least as
+// long as the pattern without its trailing 'x' characters, each 'x' in that prefix matches a single
+// digit, other characters are matched literally, and the rest of the IMSI should consist of digits.
+final class ImsiPattern {
+    private static final char ANY_DIGIT = 'x';
+
+    private final char[] prefix;
+
+    private ImsiPattern(char[] prefix) {
+        this.prefix = prefix;
+    }
+
+    static ImsiPattern compile(String pattern) {
+        int len = pattern.length();
+        while (len > 0 && isWildcard(pattern.charAt(len - 1))) {
+            --len;
+        }
+
+        var prefix = new char[len];
+        for (int i = 0; i < len; ++i) {
+            char c = pattern.charAt(i);
+            prefix[i] = isWildcard(c) ? ANY_DIGIT : c;
+        }
+        return new ImsiPattern(prefix);
+    }
+
+    boolean matches(String imsi) {
+        final char[] prefix = this.prefix;
+        final int prefixLen = prefix.length;
+        final int imsiLen = imsi.length();
+
+        if (imsiLen < prefixLen) {
+            return false;
+        }
+
+        for (int i = 0; i < prefixLen; ++i) {
+            char p = prefix[i];
+            char c = imsi.charAt(i);
+            if (p == ANY_DIGIT) {
+                if (!isDigit(c)) {
+                    return false;
+                }
+            } else if (p != c) {
+                return false;
+            }
+        }
+
+        for (int i = prefixLen; i < imsiLen; ++i) {
+            if (!isDigit(imsi.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWildcard(char c) {
+        return c == 'x' || c == 'X';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
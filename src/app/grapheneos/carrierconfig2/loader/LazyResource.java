@@ -0,0 +1,98 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+// Lazily initialized resource of CSettingsDir, e.g. a parsed protobuf file or an index that is built
+// from it.
+//
+// State is published through a volatile field: after initialization, get() is a single volatile
+// read without locking. Initialization itself is serialized, concurrent callers wait for it instead
+// of repeating it.
+//
+// Failures are cached as well. get() returns the fallback value until the retry delay expires, the
+// delay doubles after each failure. After MAX_ATTEMPTS failures, the resource stays failed.
+class LazyResource<T> {
+    interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    static final int MAX_ATTEMPTS = 5;
+    static final long INITIAL_RETRY_DELAY_NANOS = 1_000_000_000L;
+
+    private static final class State<T> {
+        final T value;
+        // null if value was loaded successfully
+        final IOException failure;
+        final int numFailures;
+        // System.nanoTime() value after which loading is retried, unused if there are no more retries
+        final long retryAtNanos;
+
+        State(T value, IOException failure, int numFailures, long retryAtNanos) {
+            this.value = value;
+            this.failure = failure;
+            this.numFailures = numFailures;
+            this.retryAtNanos = retryAtNanos;
+        }
+
+        boolean isRetryAllowed(long now) {
+            return failure != null && numFailures < MAX_ATTEMPTS && now - retryAtNanos >= 0;
+        }
+    }
+
+    private final String name;
+    private final Loader<T> loader;
+    private final T fallback;
+    // null until the first load attempt completes
+    private volatile State<T> state;
+
+    LazyResource(String name, Loader<T> loader, T fallback) {
+        this.name = name;
+        this.loader = loader;
+        this.fallback = fallback;
+    }
+
+    // Returns the fallback value if the resource is unavailable
+    T get() {
+        State<T> s = getState();
+        return s.failure == null ? s.value : fallback;
+    }
+
+    // Throws the most recent load failure if the resource is unavailable. Allows resources that are
+    // derived from this resource to not cache results that are derived from the fallback value
+    T getOrThrow() throws IOException {
+        State<T> s = getState();
+        if (s.failure != null) {
+            throw s.failure;
+        }
+        return s.value;
+    }
+
+    private State<T> getState() {
+        State<T> s = state;
+        if (s != null && !s.isRetryAllowed(System.nanoTime())) {
+            return s;
+        }
+
+        synchronized (this) {
+            s = state;
+            long now = System.nanoTime();
+            if (s != null && !s.isRetryAllowed(now)) {
+                return s;
+            }
+            int numFailures = s != null ? s.numFailures : 0;
+            try {
+                s = new State<>(loader.load(), null, numFailures, 0L);
+            } catch (IOException e) {
+                ++numFailures;
+                long delay = INITIAL_RETRY_DELAY_NANOS << (numFailures - 1);
+                Log.e(CSettingsDir.TAG, "unable to load " + name + ", attempt " + numFailures
+                        + " of " + MAX_ATTEMPTS, e);
+                s = new State<>(null, e, numFailures, now + delay);
+            }
+            state = s;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide loader metrics, exposed via dumpsys of CarrierServiceImpl and ApnServiceImpl.
+// All updates are lock-free, metrics are never reset.
+public final class LoaderMetrics {
+    private LoaderMetrics() {}
+
+    // Latency histogram with power-of-two microsecond buckets
+    static final class Histogram {
+        // bucket i holds durations in [2^(i-1), 2^i) us, bucket 0 holds durations below 1 us
+        private static final int NUM_BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        void record(long nanos) {
+            long micros = nanos / 1000;
+            int bucket = Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.getAndIncrement(bucket);
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        // start is a System.nanoTime() value
+        void recordSince(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        // upper bound of the bucket that contains the given percentile, in microseconds
+        long percentileMicros(double p) {
+            long[] snapshot = new long[NUM_BUCKETS];
+            long total = 0;
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            long target = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                seen += snapshot[i];
+                if (seen >= target && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        void dump(PrintWriter pw, String name) {
+            long n = count.sum();
+            if (n == 0) {
+                pw.println(name + ": no samples");
+                return;
+            }
+            pw.println(name + ": count " + n
+                    + "; mean " + (totalNanos.sum() / n / 1000) + " us"
+                    + "; p50 <" + percentileMicros(0.5) + " us"
+                    + "; p90 <" + percentileMicros(0.9) + " us"
+                    + "; p99 <" + percentileMicros(0.99) + " us");
+        }
+    }
+
+    static final class FileStats {
+        final LongAdder bytes = new LongAdder();
+        final Histogram parseTime = new Histogram();
+    }
+
+    // file name -> stats of its reads and parses
+    private static final ConcurrentHashMap<String, FileStats> fileStats = new ConcurrentHashMap<>();
+
+    static final Histogram load = new Histogram();
+    static final Histogram prefetch = new Histogram();
+
+    // time-to-first-config: duration of the first load() in this process, and the time from
+    // CarrierServiceImpl creation to the end of that load(). -1 if there was no load() yet
+    private static final AtomicLong firstLoadNanos = new AtomicLong(-1);
+    private static volatile long firstLoadSinceCreateNanos = -1;
+    private static volatile long serviceCreatedNanos;
+    static final Histogram carrierConfigToBundle = new Histogram();
+    static final LongAdder carrierConfigToBundleEntries = new LongAdder();
+    static final Histogram filterBinderCalls = new Histogram();
+    static final Histogram getApnContentValues = new Histogram();
+
+    static final Histogram apnUpdate = new Histogram();
+    static final LongAdder apnRowsDeleted = new LongAdder();
+    static final LongAdder apnRowsInserted = new LongAdder();
+    // checks of ApnVersionStore, each hit is a skipped APN update
+    static final LongAdder apnVersionHits = new LongAdder();
+    static final LongAdder apnVersionMisses = new LongAdder();
+
+    static void recordFileParse(String fileName, long bytes, long startNanos) {
+        FileStats s = fileStats.computeIfAbsent(fileName, k -> new FileStats());
+        s.bytes.add(bytes);
+        s.parseTime.recordSince(startNanos);
+    }
+
+    public static void onServiceCreated() {
+        serviceCreatedNanos = System.nanoTime();
+    }
+
+    static void recordFirstLoad(long startNanos) {
+        if (firstLoadNanos.get() != -1) {
+            return;
+        }
+        long end = System.nanoTime();
+        if (firstLoadNanos.compareAndSet(-1, end - startNanos)) {
+            long created = serviceCreatedNanos;
+            if (created != 0) {
+                firstLoadSinceCreateNanos = end - created;
+            }
+        }
+    }
+
+    public static void dump(PrintWriter pw) {
+        pw.println("LoaderMetrics:");
+        dumpHitRate(pw, "systemAppCache", Filters.getSystemAppCacheHits(),
+                Filters.getSystemAppCacheMisses());
+        // lookup cache stats are per CSettingsDir instance
+        CSettingsDir csd = CSettingsDir.getDefault();
+        if (csd != null) {
+            pw.println("default CSettingsDir:");
+            csd.dumpCaches(pw);
+        }
+
+        load.dump(pw, "load");
+        long firstLoad = firstLoadNanos.get();
+        if (firstLoad != -1) {
+            long sinceCreate = firstLoadSinceCreateNanos;
+            pw.println("firstLoad: " + (firstLoad / 1000) + " us"
+                    + (sinceCreate != -1 ? "; " + (sinceCreate / 1000) + " us after service creation" : ""));
+        }
+        prefetch.dump(pw, "prefetch");
+        carrierConfigToBundle.dump(pw, "carrierConfigToBundle");
+        long numBundles = carrierConfigToBundle.count();
+        if (numBundles != 0) {
+            pw.println("carrierConfigToBundle: mean entries "
+                    + (carrierConfigToBundleEntries.sum() / numBundles));
+        }
+        filterBinderCalls.dump(pw, "filterBinderCalls");
+        getApnContentValues.dump(pw, "getApnContentValues");
+
+        apnUpdate.dump(pw, "apnUpdate");
+        pw.println("apnRows: deleted " + apnRowsDeleted.sum() + "; inserted " + apnRowsInserted.sum());
+        dumpHitRate(pw, "apnVersionStore", apnVersionHits.sum(), apnVersionMisses.sum());
+        ApnVersionStore apnVersionStore = ApnVersionStore.peekInstance();
+        if (apnVersionStore != null) {
+            apnVersionStore.dump(pw);
+        }
+
+        Filters.dumpRules(pw);
+
+        pw.println("files:");
+        for (Map.Entry<String, FileStats> e : new TreeMap<>(fileStats).entrySet()) {
+            FileStats s = e.getValue();
+            s.parseTime.dump(pw, "  " + e.getKey() + " (" + s.bytes.sum() + " bytes)");
+        }
+    }
+
+    private static void dumpHitRate(PrintWriter pw, String name, long hits, long misses) {
+        long total = hits + misses;
+        pw.println(name + ": hits " + hits + "; misses " + misses
+                + (total != 0 ? "; hit rate " + (hits * 100 / total) + "%" : ""));
+    }
+}
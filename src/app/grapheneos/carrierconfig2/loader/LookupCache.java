@@ -0,0 +1,139 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.annotation.Nullable;
+import android.util.LruCache;
+
+import java.io.PrintWriter;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+// Lookup cache that is bounded by the estimated size of its values in bytes.
+//
+// Keys that have no value are kept in a separate negative cache that is bounded by the number of
+// entries: they cost almost nothing, and they shouldn't evict (or be evicted by) large values.
+//
+// Misses are resolved with single-flight coalescing, see compute().
+class LookupCache<K, V> {
+    private final String name;
+    private final LruCache<K, V> values;
+    private final LruCache<K, Boolean> negative;
+    // computations that are in progress, see compute()
+    private final ConcurrentHashMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<>();
+    // number of compute() calls that waited for a computation of another caller
+    private final LongAdder coalesced = new LongAdder();
+
+    // maxBytes is the maximum sum of sizeOf() of cached values
+    LookupCache(String name, int maxBytes, int maxNegativeEntries, ToIntFunction<V> sizeOf) {
+        this.name = name;
+        this.values = new LruCache<>(maxBytes) {
+            @Override
+            protected int sizeOf(K key, V value) {
+                return sizeOf.applyAsInt(value);
+            }
+        };
+        this.negative = new LruCache<>(maxNegativeEntries);
+    }
+
+    // Returns null if the key isn't cached, Optional.empty() if the key is known to have no value
+    @Nullable
+    Optional<V> get(K key) {
+        V v = values.get(key);
+        if (v != null) {
+            return Optional.of(v);
+        }
+        if (negative.get(key) != null) {
+            return Optional.empty();
+        }
+        return null;
+    }
+
+    void put(K key, @Nullable V value) {
+        if (value != null) {
+            // a value that is larger than maxBytes is evicted immediately
+            values.put(key, value);
+            negative.remove(key);
+        } else {
+            negative.put(key, Boolean.TRUE);
+            values.remove(key);
+        }
+    }
+
+    // Computes the value of a key that wasn't found by get() and caches it. Concurrent calls for the
+    // same key wait for a single computation, calls for different keys proceed in parallel.
+    // function is called without holding any locks
+    @Nullable
+    V compute(K key, Function<K, V> function) {
+        FutureTask<V> task = inFlight.get(key);
+        if (task == null) {
+            var newTask = new FutureTask<V>(() -> {
+                // computation of another caller could have completed after the get() call of this
+                // caller
+                Optional<V> cached = get(key);
+                if (cached != null) {
+                    return cached.orElse(null);
+                }
+                V v = function.apply(key);
+                put(key, v);
+                return v;
+            });
+            task = inFlight.putIfAbsent(key, newTask);
+            if (task == null) {
+                try {
+                    newTask.run();
+                } finally {
+                    // value is already in the cache at this point
+                    inFlight.remove(key, newTask);
+                }
+                task = newTask;
+            } else {
+                coalesced.increment();
+            }
+        } else {
+            coalesced.increment();
+        }
+        return getUninterruptibly(task);
+    }
+
+    private static <V> V getUninterruptibly(FutureTask<V> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        // negative cache is checked only after a miss in the values cache
+        int misses = negative.missCount();
+        pw.println(name + ": hits " + values.hitCount() + "; negative hits " + negative.hitCount()
+                + "; misses " + misses
+                + "; evictions " + values.evictionCount() + " / " + negative.evictionCount()
+                + " (negative)"
+                + "; coalesced " + coalesced.sum()
+                + "; size " + values.size() + " / " + values.maxSize() + " bytes"
+                + ", " + negative.size() + " / " + negative.maxSize() + " negative entries");
+    }
+}
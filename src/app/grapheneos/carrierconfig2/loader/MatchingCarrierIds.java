@@ -0,0 +1,135 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.service.carrier.CarrierIdentifier;
+
+import com.google.carrier.CarrierId;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import static com.android.internal.util.Preconditions.checkArgumentInRange;
+
+// Generates Android CarrierIdentifiers that match a given proto CarrierId, see CmpTest.
+//
+// Random CarrierIdentifiers depend only on the seed and on the index of the proto CarrierId, which
+// makes them reproducible regardless of how proto CarrierIds are distributed among threads.
+class MatchingCarrierIds {
+    // same constants as in SplittableRandom
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    final long seed;
+
+    MatchingCarrierIds(long seed) {
+        this.seed = seed;
+    }
+
+    // Seed of the random stream of proto CarrierId with the given index, see random()
+    long streamSeed(int index) {
+        return mix64(seed + (index + 1) * GOLDEN_GAMMA);
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    static CarrierIdentifier random(CarrierId protoCarrierId, SplittableRandom rnd) {
+        String mccMnc = protoCarrierId.getMccMnc();
+        checkArgumentInRange(mccMnc.length(), 5, 6, "mccMncLen");
+        String mcc = mccMnc.substring(0, 3);
+        String mnc = mccMnc.substring(3);
+        String spn = null;
+        String imsi = null;
+        String gid1 = null;
+
+        switch (protoCarrierId.getMvnoDataCase()) {
+            case SPN:
+                spn = protoCarrierId.getSpn().toLowerCase(Locale.ROOT);
+                break;
+            case IMSI:
+                imsi = protoCarrierId.getImsi()
+                        .replace('x', randomDigit(rnd))
+                        .replace('X', randomDigit(rnd))
+                        + randomDigits(rnd);
+                break;
+            case GID1:
+                gid1 = protoCarrierId.getGid1().toLowerCase(Locale.ROOT) + randomDigits(rnd);
+                break;
+        }
+        return new CarrierIdentifier(mcc, mnc, spn, imsi, gid1, null);
+    }
+
+    // Deterministic CarrierIdentifiers at the edges of the range of matching CarrierIdentifiers:
+    // <ul>
+    // <li>SPN: original, lower case and upper case variants</li>
+    // <li>IMSI: wildcards replaced with the lowest and highest digit, with zero and two extra
+    // digits</li>
+    // <li>GID1: shortest (the proto GID1 itself) and longest (with two extra hex digits) prefix
+    // matches, in lower and upper case</li>
+    // </ul>
+    static List<CarrierIdentifier> edgeCases(CarrierId protoCarrierId) {
+        String mccMnc = protoCarrierId.getMccMnc();
+        checkArgumentInRange(mccMnc.length(), 5, 6, "mccMncLen");
+        String mcc = mccMnc.substring(0, 3);
+        String mnc = mccMnc.substring(3);
+
+        var res = new ArrayList<CarrierIdentifier>();
+        switch (protoCarrierId.getMvnoDataCase()) {
+            case SPN:
+                for (String spn : caseVariants(protoCarrierId.getSpn())) {
+                    res.add(new CarrierIdentifier(mcc, mnc, spn, null, null, null));
+                }
+                break;
+            case IMSI: {
+                String pattern = protoCarrierId.getImsi();
+                for (char d : new char[] { '0', '9' }) {
+                    String imsi = pattern.replace('x', d).replace('X', d);
+                    res.add(new CarrierIdentifier(mcc, mnc, null, imsi, null, null));
+                    res.add(new CarrierIdentifier(mcc, mnc, null, imsi + d + d, null, null));
+                }
+                break;
+            }
+            case GID1: {
+                String gid1 = protoCarrierId.getGid1();
+                for (String g : caseVariants(gid1)) {
+                    res.add(new CarrierIdentifier(mcc, mnc, null, null, g, null));
+                }
+                for (String g : caseVariants(gid1 + "ff")) {
+                    res.add(new CarrierIdentifier(mcc, mnc, null, null, g, null));
+                }
+                break;
+            }
+            default:
+                res.add(new CarrierIdentifier(mcc, mnc, null, null, null, null));
+                break;
+        }
+        return res;
+    }
+
+    private static LinkedHashSet<String> caseVariants(String s) {
+        var res = new LinkedHashSet<String>(3);
+        res.add(s);
+        res.add(s.toLowerCase(Locale.ROOT));
+        res.add(s.toUpperCase(Locale.ROOT));
+        return res;
+    }
+
+    // zero to two random digits
+    private static String randomDigits(SplittableRandom rnd) {
+        var sb = new StringBuilder(2);
+        for (int i = 0; i < 2; ++i) {
+            if (rnd.nextBoolean()) {
+                sb.append(randomDigit(rnd));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static char randomDigit(SplittableRandom rnd) {
+        return (char) ('0' + rnd.nextInt(10));
+    }
+}
@@ -0,0 +1,60 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.annotation.Nullable;
+
+import com.google.carrier.CarrierId;
+import com.google.carrier.CarrierList;
+import com.google.carrier.CarrierMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Immutable index of CarrierList by MCC+MNC.
+// Candidates for each MCC+MNC are kept in CarrierList order. For any given MCC+MNC, MVNO CarrierIds
+// (if there are any) precede the MVNODATA_NOT_SET CarrierId in that order, lookup relies on it.
+class MccMncIndex {
+    static final class Candidate {
+        final String canonicalName;
+        final CarrierId protoCarrierId;
+        // non-null only for IMSI CarrierIds
+        @Nullable
+        final ImsiPattern imsiPattern;
+
+        Candidate(String canonicalName, CarrierId protoCarrierId) {
+            this.canonicalName = canonicalName;
+            this.protoCarrierId = protoCarrierId;
+            this.imsiPattern = protoCarrierId.getMvnoDataCase() == CarrierId.MvnoDataCase.IMSI ?
+                    ImsiPattern.compile(protoCarrierId.getImsi()) : null;
+        }
+    }
+
+    static final Candidate[] NO_CANDIDATES = new Candidate[0];
+
+    private final Map<String, Candidate[]> map;
+
+    private MccMncIndex(Map<String, Candidate[]> map) {
+        this.map = map;
+    }
+
+    static MccMncIndex build(CarrierList carrierList) {
+        var lists = new HashMap<String, List<Candidate>>();
+
+        for (CarrierMap carrierMap : carrierList.getEntryList()) {
+            String canonicalName = carrierMap.getCanonicalName();
+            for (CarrierId carrierId : carrierMap.getCarrierIdList()) {
+                lists.computeIfAbsent(carrierId.getMccMnc(), k -> new ArrayList<>())
+                        .add(new Candidate(canonicalName, carrierId));
+            }
+        }
+
+        var map = new HashMap<String, Candidate[]>(lists.size());
+        lists.forEach((mccMnc, list) -> map.put(mccMnc, list.toArray(NO_CANDIDATES)));
+        return new MccMncIndex(map);
+    }
+
+    Candidate[] get(String mccMnc) {
+        return map.getOrDefault(mccMnc, NO_CANDIDATES);
+    }
+}
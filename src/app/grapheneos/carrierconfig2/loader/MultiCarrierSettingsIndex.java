@@ -0,0 +1,145 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.annotation.Nullable;
+
+import com.google.carrier.CarrierSettings;
+import com.google.carrier.MultiCarrierSettings;
+import com.google.carrier.Timestamp;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+// Index of serialized MultiCarrierSettings (others.pb) that allows to parse CarrierSettings of a single
+// canonical name without parsing the whole MultiCarrierSettings.
+//
+// Index is built with a single streaming pass over the file: it records the offset and length of
+// each `setting` entry by its canonical name, as well as the top-level version and timestamp.
+class MultiCarrierSettingsIndex {
+    private static final int VERSION_FIELD = MultiCarrierSettings.VERSION_FIELD_NUMBER;
+    private static final int SETTING_FIELD = MultiCarrierSettings.SETTING_FIELD_NUMBER;
+    private static final int LAST_UPDATED_FIELD = MultiCarrierSettings.LAST_UPDATED_FIELD_NUMBER;
+    private static final int CANONICAL_NAME_FIELD = CarrierSettings.CANONICAL_NAME_FIELD_NUMBER;
+
+    static final MultiCarrierSettingsIndex EMPTY = new MultiCarrierSettingsIndex(
+            ByteBuffer.allocate(0),
+            0L, Timestamp.getDefaultInstance(), new HashMap<>());
+
+    // either a heap or a memory-mapped buffer, it's never modified
+    private final ByteBuffer buf;
+    final long version;
+    final Timestamp lastUpdated;
+    // canonical name -> (offset << 32) | length of its serialized CarrierSettings
+    private final Map<String, Long> entries;
+
+    private MultiCarrierSettingsIndex(ByteBuffer buf, long version, Timestamp lastUpdated,
+                                      Map<String, Long> entries) {
+        this.buf = buf;
+        this.version = version;
+        this.lastUpdated = lastUpdated;
+        this.entries = entries;
+    }
+
+    static MultiCarrierSettingsIndex build(ByteBuffer buf) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(buf.duplicate());
+
+        long version = 0L;
+        Timestamp lastUpdated = Timestamp.getDefaultInstance();
+        var entries = new HashMap<String, Long>();
+
+        for (;;) {
+            int tag = in.readTag();
+            if (tag == 0) {
+                break;
+            }
+
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case VERSION_FIELD:
+                    if (WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_VARINT) {
+                        version = in.readInt64();
+                        continue;
+                    }
+                    break;
+                case SETTING_FIELD:
+                    if (WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                        int length = in.readRawVarint32();
+                        int offset = in.getTotalBytesRead();
+                        String canonicalName = readCanonicalName(slice(buf, offset, length));
+                        // matches the linear search over MultiCarrierSettings: first entry wins
+                        entries.putIfAbsent(canonicalName, ((long) offset << 32) | length);
+                        in.skipRawBytes(length);
+                        continue;
+                    }
+                    break;
+                case LAST_UPDATED_FIELD:
+                    if (WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                        lastUpdated = in.readMessage(Timestamp.parser(),
+                                ExtensionRegistryLite.getEmptyRegistry());
+                        continue;
+                    }
+                    break;
+            }
+
+            if (!in.skipField(tag)) {
+                break;
+            }
+        }
+
+        return new MultiCarrierSettingsIndex(buf, version, lastUpdated, entries);
+    }
+
+    private static String readCanonicalName(ByteBuffer setting) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(setting);
+        String canonicalName = "";
+        for (;;) {
+            int tag = in.readTag();
+            if (tag == 0) {
+                break;
+            }
+            if (WireFormat.getTagFieldNumber(tag) == CANONICAL_NAME_FIELD
+                    && WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                // last value wins, as in regular parsing
+                canonicalName = in.readString();
+            } else if (!in.skipField(tag)) {
+                break;
+            }
+        }
+        return canonicalName;
+    }
+
+    @Nullable
+    CarrierSettings get(String canonicalName) throws IOException {
+        Long entry = entries.get(canonicalName);
+        if (entry == null) {
+            return null;
+        }
+        int offset = (int) (entry >>> 32);
+        int length = (int) entry.longValue();
+
+        long start = System.nanoTime();
+        CarrierSettings.Builder b = CarrierSettings.parseFrom(slice(buf, offset, length)).toBuilder();
+        // versions and timestamps of CarrierSettings inside MultiCarrierSettings are missing,
+        // use values from MultiCarrierSettings instead
+        b.setVersion(version);
+        b.setLastUpdated(lastUpdated);
+        CarrierSettings res = b.build();
+        LoaderMetrics.recordFileParse("others.pb entries", length, start);
+        return res;
+    }
+
+    // returned buffer is independent from buf, which allows concurrent lookups
+    private static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
+        ByteBuffer b = buf.duplicate();
+        b.position(offset);
+        b.limit(offset + length);
+        return b.slice();
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
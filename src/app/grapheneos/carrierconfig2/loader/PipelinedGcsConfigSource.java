@@ -0,0 +1,62 @@
+package app.grapheneos.carrierconfig2.loader;
+
+import android.os.RemoteException;
+import android.service.carrier.CarrierIdentifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Wraps a GcsConfigSource to fetch configs for a batch of CarrierIdentifiers ahead of their
+// consumption. Up to `depth` requests are in flight at the same time, which allows the caller to
+// compare already received configs while the rest of the batch is being retrieved and unparceled.
+public class PipelinedGcsConfigSource implements GcsConfigSource, AutoCloseable {
+    private final GcsConfigSource source;
+    private final ExecutorService executor;
+
+    public PipelinedGcsConfigSource(GcsConfigSource source, int depth) {
+        this.source = source;
+        this.executor = Executors.newFixedThreadPool(depth, r -> {
+            var t = new Thread(r, PipelinedGcsConfigSource.class.getSimpleName());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public Configs getConfigs(CarrierIdentifier carrierId) throws RemoteException {
+        return source.getConfigs(carrierId);
+    }
+
+    // Requests are started in order, results should be consumed in the same order via await()
+    public List<Future<Configs>> getConfigsBatch(List<CarrierIdentifier> carrierIds) {
+        var res = new ArrayList<Future<Configs>>(carrierIds.size());
+        for (CarrierIdentifier carrierId : carrierIds) {
+            res.add(executor.submit(() -> source.getConfigs(carrierId)));
+        }
+        return res;
+    }
+
+    public static Configs await(Future<Configs> f) throws RemoteException, InterruptedException {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RemoteException) {
+                throw (RemoteException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,31 @@
+package app.grapheneos.carrierconfig2.tools;
+
+import android.content.Context;
+
+import java.io.File;
+
+import app.grapheneos.carrierconfig2.loader.CSettingsDir;
+import app.grapheneos.carrierconfig2.loader.CmpTest;
+
+// Host-side replay of a GCS dump that was recorded by TestActivity, see CmpTest.replay()
+public class CmpReplay {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: CarrierConfig2CmpReplay <CarrierSettings dir> <GCS dump>"
+                    + " [concurrency]");
+            System.exit(2);
+        }
+        var csd = new CSettingsDir(new File(args[0]));
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        // CarrierConfigLoader doesn't use its Context when filtering and APN updates are disabled,
+        // which is always the case in CmpTest
+        var context = new Context() {};
+        var cmpTest = new CmpTest(context, csd, null,
+                (tag, msg) -> System.out.println(tag + ": " + msg), concurrency);
+        cmpTest.replay(new File(args[1]));
+        System.exit(cmpTest.getDifferenceCount() == 0 ? 0 : 1);
+    }
+}
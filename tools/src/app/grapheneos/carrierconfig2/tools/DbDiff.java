@@ -0,0 +1,125 @@
+package app.grapheneos.carrierconfig2.tools;
+
+import android.annotation.Nullable;
+import android.content.Context;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import app.grapheneos.carrierconfig2.loader.CSettingsDir;
+import app.grapheneos.carrierconfig2.loader.CSettingsDirDiff;
+import app.grapheneos.carrierconfig2.loader.ConfigDiffer;
+
+// Host-side comparison of two CarrierSettings dirs, see README.md. Prints one JSON object per line
+// for each changed CarrierId, followed by a summary line
+public class DbDiff {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: CarrierConfig2DbDiff <old CarrierSettings dir>"
+                    + " <new CarrierSettings dir> [concurrency]");
+            System.exit(2);
+        }
+        var oldDir = new CSettingsDir(new File(args[0]));
+        var newDir = new CSettingsDir(new File(args[1]));
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        // CarrierConfigLoader doesn't use its Context when filtering and APN updates are disabled,
+        // which is always the case in CSettingsDirDiff
+        var context = new Context() {};
+        var out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        CSettingsDirDiff.Summary summary = new CSettingsDirDiff(context, oldDir, newDir, concurrency)
+                .run(r -> {
+                    if (r.isChanged()) {
+                        out.println(toJson(r));
+                    }
+                });
+        out.println("{\"summary\":{\"carrierIds\":" + summary.numCarrierIds
+                + ",\"changed\":" + summary.numChanged
+                + ",\"apnRewrites\":" + summary.numApnRewrites + "}}");
+        out.flush();
+        System.exit(summary.numChanged == 0 ? 0 : 1);
+    }
+
+    private static String toJson(CSettingsDirDiff.Result r) {
+        var b = new StringBuilder();
+        b.append("{\"mccMnc\":");
+        appendString(b, r.protoCarrierId.getMccMnc());
+        b.append(",\"mvnoType\":");
+        appendString(b, r.mvnoType());
+        b.append(",\"mvnoMatchData\":");
+        appendString(b, r.mvnoMatchData());
+        b.append(",\"old\":{\"canonicalName\":");
+        appendString(b, r.oldCanonicalName);
+        b.append(",\"version\":").append(r.oldVersion);
+        b.append("},\"new\":{\"canonicalName\":");
+        appendString(b, r.newCanonicalName);
+        b.append(",\"version\":").append(r.newVersion);
+        b.append("},\"apnsChanged\":").append(r.isApnsChanged());
+        b.append(",\"apnRewrite\":").append(r.isApnRewriteNeeded());
+        b.append(",\"diffs\":[");
+        appendDiffs(b, r.configDiffs, false);
+        appendDiffs(b, r.apnDiffs, !r.configDiffs.isEmpty());
+        b.append("]}");
+        return b.toString();
+    }
+
+    private static void appendDiffs(StringBuilder b, List<ConfigDiffer.Diff> diffs, boolean comma) {
+        for (ConfigDiffer.Diff d : diffs) {
+            if (comma) {
+                b.append(',');
+            }
+            comma = true;
+            b.append("{\"path\":");
+            appendString(b, d.path);
+            b.append(",\"kind\":\"").append(d.kind).append('"');
+            // "expected" side of the diff is the old dir
+            b.append(",\"old\":");
+            appendString(b, d.expected != null ? ConfigDiffer.valueToString(d.expected) : null);
+            b.append(",\"new\":");
+            appendString(b, d.actual != null ? ConfigDiffer.valueToString(d.actual) : null);
+            b.append('}');
+        }
+    }
+
+    private static void appendString(StringBuilder b, @Nullable String s) {
+        if (s == null) {
+            b.append("null");
+            return;
+        }
+        b.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    b.append("\\\"");
+                    break;
+                case '\\':
+                    b.append("\\\\");
+                    break;
+                case '\n':
+                    b.append("\\n");
+                    break;
+                case '\r':
+                    b.append("\\r");
+                    break;
+                case '\t':
+                    b.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        b.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        b.append(c);
+                    }
+            }
+        }
+        b.append('"');
+    }
+}